@@ -7,10 +7,14 @@
  */
 package client;
 
+import service.WriteBatch;
+
 public interface Client {
     void set(String key, String value);
 
     String get(String key);
 
     void rm(String key);
+
+    void write(WriteBatch batch);
 }
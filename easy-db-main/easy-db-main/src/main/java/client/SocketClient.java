@@ -10,6 +10,7 @@ package client;
 import dto.ActionDTO;
 import dto.ActionTypeEnum;
 import dto.RespDTO;
+import service.WriteBatch;
 
 import java.io.*;
 import java.net.Socket;
@@ -63,4 +64,20 @@ public class SocketClient implements Client {
 
     }
 
+    @Override
+    public void write(WriteBatch batch) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            // 整批作为一个对象传输，服务端一次写入
+            ActionDTO dto = new ActionDTO(batch);
+            oos.writeObject(dto);
+            oos.flush();
+            RespDTO resp = (RespDTO) ois.readObject();
+            System.out.println("resp data: "+ resp.toString());
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
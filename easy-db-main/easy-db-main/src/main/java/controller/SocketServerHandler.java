@@ -60,6 +60,13 @@ public class SocketServerHandler implements Runnable {
             if (dto.getType() == ActionTypeEnum.RM) {
                 this.store.rm(dto.getKey());
             }
+            if (dto.getType() == ActionTypeEnum.BATCH) {
+                this.store.write(dto.getBatch());
+                LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "batch action resp" + dto.toString());
+                RespDTO resp = new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+                oos.writeObject(resp);
+                oos.flush();
+            }
 
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
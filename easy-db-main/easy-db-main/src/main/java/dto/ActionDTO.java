@@ -9,6 +9,7 @@ package dto;
 
 import lombok.Getter;
 import lombok.Setter;
+import service.WriteBatch;
 
 import java.io.Serializable;
 
@@ -18,6 +19,7 @@ public class ActionDTO implements Serializable {
     private ActionTypeEnum type;
     private String key;
     private String value;
+    private WriteBatch batch;
 
     public ActionDTO(ActionTypeEnum type, String key, String value) {
         this.type = type;
@@ -25,12 +27,18 @@ public class ActionDTO implements Serializable {
         this.value = value;
     }
 
+    public ActionDTO(WriteBatch batch) {
+        this.type = ActionTypeEnum.BATCH;
+        this.batch = batch;
+    }
+
     @Override
     public String toString() {
         return "ActionDTO{" +
                 "type=" + type +
                 ", key='" + key + '\'' +
                 ", value='" + value + '\'' +
+                ", batch=" + batch +
                 '}';
     }
 }
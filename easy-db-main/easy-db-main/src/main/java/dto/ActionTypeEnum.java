@@ -19,5 +19,9 @@ public enum ActionTypeEnum {
     /*
     * 查
     * */
-    GET
+    GET,
+    /*
+     * 批量写
+     * */
+    BATCH
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+/*
+ *@Type AsyncStoreUsage.java
+ * @Desc 异步接口的用法：大量请求同时在途，写入和读取分别被合并
+ * @version
+ */
+package example;
+
+import service.AsyncStore;
+import service.NormalStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class AsyncStoreUsage {
+    public static void main(String[] args) throws IOException {
+        String dataDir = "data" + File.separator;
+        NormalStore store = new NormalStore(dataDir);
+        AsyncStore async = new AsyncStore(store);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            writes.add(async.set("async" + i, "value" + i));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        async.get("async42", (value, error) -> System.out.println("async42 = " + value)).join();
+        async.close();
+        store.close();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *@Type BatchWriteBenchmark.java
+ * @Desc 逐条写入与批量写入的吞吐对比
+ * @version
+ */
+package example;
+
+import service.DurabilityTypeEnum;
+import service.NormalStore;
+import service.StoreConfig;
+import service.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+
+public class BatchWriteBenchmark {
+    public static void main(String[] args) throws IOException {
+        String dataDir = args.length > 0 ? args[0] : "bench-batch" + File.separator;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        StoreConfig config = new StoreConfig();
+        // 每次写入都刷盘，逐条写入的代价最明显
+        config.setDurability(DurabilityTypeEnum.SYNC_EVERY_BATCH);
+        config.setMergeEnabled(false);
+
+        NormalStore store = new NormalStore(dataDir + "single", config);
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            store.set("key" + i, "value-" + i);
+        }
+        report("set", records, start);
+        store.close();
+
+        store = new NormalStore(dataDir + "batch", config);
+        start = System.nanoTime();
+        for (int i = 0; i < records; i += batchSize) {
+            WriteBatch batch = new WriteBatch();
+            for (int j = i; j < Math.min(records, i + batchSize); j++) {
+                batch.set("key" + j, "value-" + j);
+            }
+            store.write(batch);
+        }
+        report("write(" + batchSize + ")", records, start);
+        store.close();
+    }
+
+    private static void report(String name, int records, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-12s %8d records in %6.2f s, %10.0f ops/s%n", name, records, seconds, records / seconds);
+    }
+}
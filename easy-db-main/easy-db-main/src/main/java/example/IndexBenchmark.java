@@ -0,0 +1,51 @@
+/*
+ *@Type IndexBenchmark.java
+ * @Desc HashMap 索引与堆外紧凑索引的内存占用和读写耗时对比
+ * @version
+ */
+package example;
+
+import model.command.CommandPos;
+import service.HashKeyIndex;
+import service.KeyIndex;
+import service.OffHeapKeyIndex;
+
+public class IndexBenchmark {
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        run("HashMap", new HashKeyIndex(), keys);
+        run("OffHeap", new OffHeapKeyIndex(), keys);
+    }
+
+    private static void run(String name, KeyIndex index, int keys) {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            index.put("user:" + i, new CommandPos(i >>> 16, 12L + i * 40L % (64 << 20), 40));
+        }
+        long putMs = (System.nanoTime() - start) / 1_000_000;
+        long heapBytes = usedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < keys; i++) {
+            if (index.get("user:" + i) != null) {
+                found++;
+            }
+        }
+        long getMs = (System.nanoTime() - start) / 1_000_000;
+
+        long offHeapBytes = index instanceof OffHeapKeyIndex ? ((OffHeapKeyIndex) index).offHeapBytes() : 0;
+        System.out.printf("%s: %d keys, put %d ms, get %d ms (found %d), heap %.1f B/key, off-heap %.1f B/key%n",
+                name, index.size(), putMs, getMs, found,
+                (double) heapBytes / keys, (double) offHeapBytes / keys);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *@Type MultiGetBenchmark.java
+ * @Desc 逐个 get 与一次 multiGet 读取同一组 key 的耗时对比
+ * @version
+ */
+package example;
+
+import service.DurabilityTypeEnum;
+import service.NormalStore;
+import service.StoreConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class MultiGetBenchmark {
+    private static final int KEYS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        String dataDir = args.length > 0 ? args[0] : "bench-multiget" + File.separator;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        for (boolean mmap : new boolean[]{false, true}) {
+            StoreConfig config = new StoreConfig();
+            config.setDurability(DurabilityTypeEnum.NO_SYNC);
+            config.setMmapEnabled(mmap);
+            NormalStore store = new NormalStore(dataDir, config);
+            if (store.get("key0") == null) {
+                for (int i = 0; i < KEYS; i++) {
+                    store.set("key" + i, "value-" + i);
+                }
+            }
+            // 一页里的 key 通常是相近时间写入的，取一段连续区间内的随机 key
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long getNanos = 0;
+            long multiGetNanos = 0;
+            for (int r = 0; r < rounds; r++) {
+                int base = random.nextInt(KEYS - batchSize * 4);
+                List<String> keys = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    keys.add("key" + (base + random.nextInt(batchSize * 4)));
+                }
+                long start = System.nanoTime();
+                for (String key : keys) {
+                    store.get(key);
+                }
+                getNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                store.multiGet(keys);
+                multiGetNanos += System.nanoTime() - start;
+            }
+            System.out.printf("mmap %-5s, %d keys: get x%d %7.1f us, multiGet %7.1f us%n", mmap, batchSize, batchSize,
+                    getNanos / 1000.0 / rounds, multiGetNanos / 1000.0 / rounds);
+            store.close();
+        }
+    }
+}
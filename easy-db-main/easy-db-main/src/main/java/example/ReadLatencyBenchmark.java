@@ -0,0 +1,95 @@
+/*
+ *@Type ReadLatencyBenchmark.java
+ * @Desc 有无并发写入时读吞吐和读延迟分位数
+ * @version
+ */
+package example;
+
+import service.DurabilityTypeEnum;
+import service.NormalStore;
+import service.StoreConfig;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ReadLatencyBenchmark {
+    private static final int KEYS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        String dataDir = args.length > 0 ? args[0] : "bench-read" + File.separator;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        StoreConfig config = new StoreConfig();
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        NormalStore store = new NormalStore(dataDir, config);
+        for (int i = 0; i < KEYS; i++) {
+            store.set("key" + i, "value-" + i);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int readers = 1; readers <= cores; readers *= 2) {
+            run(store, readers, false, seconds);
+            run(store, readers, true, seconds);
+        }
+        store.close();
+    }
+
+    private static void run(NormalStore store, int readers, boolean withWrites, int seconds) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                store.set("key" + random.nextInt(KEYS), "value-" + random.nextLong());
+            }
+        });
+        if (withWrites) {
+            writer.start();
+        }
+        long[][] latencies = new long[readers][];
+        int[] counts = new int[readers];
+        Thread[] threads = new Thread[readers];
+        for (int t = 0; t < readers; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] samples = new long[1 << 20];
+                int n = 0;
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    store.get("key" + random.nextInt(KEYS));
+                    long cost = System.nanoTime() - start;
+                    if (n < samples.length) {
+                        samples[n] = cost;
+                    }
+                    n++;
+                }
+                latencies[id] = samples;
+                counts[id] = n;
+            });
+            threads[t].start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        long total = 0;
+        int sampled = 0;
+        for (int t = 0; t < readers; t++) {
+            threads[t].join();
+            total += counts[t];
+            sampled += Math.min(counts[t], latencies[t].length);
+        }
+        if (withWrites) {
+            writer.join();
+        }
+        long[] all = new long[sampled];
+        int p = 0;
+        for (int t = 0; t < readers; t++) {
+            int n = Math.min(counts[t], latencies[t].length);
+            System.arraycopy(latencies[t], 0, all, p, n);
+            p += n;
+        }
+        Arrays.sort(all);
+        System.out.printf("%2d readers, writes %-5s: %8d gets/s, p50 %5.1f us, p99 %6.1f us%n",
+                readers, withWrites, total / seconds,
+                all[(int) (all.length * 0.5)] / 1000.0, all[(int) (all.length * 0.99)] / 1000.0);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *@Type StartupBenchmark.java
+ * @Desc 启动重建索引耗时随解码线程数的变化，以及提示文件、检查点的效果
+ * @version
+ */
+package example;
+
+import service.Checkpoint;
+import service.DurabilityTypeEnum;
+import service.HintFile;
+import service.NormalStore;
+import service.StoreConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException {
+        String dataDir = args.length > 0 ? args[0] : "bench-startup" + File.separator;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int keys = records / 4;
+
+        StoreConfig config = new StoreConfig();
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        config.setMergeEnabled(false);
+        File dir = new File(dataDir);
+        if (!dir.exists() || dir.list().length == 0) {
+            NormalStore store = new NormalStore(dataDir, config);
+            for (int i = 0; i < records; i++) {
+                store.set("key" + (i % keys), "value-" + i);
+            }
+            store.close();
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            deleteHints(dir);
+            Files.deleteIfExists(Checkpoint.path(dataDir));
+            System.out.printf("scan, %2d decoders: %6d ms%n", threads, open(dataDir, config, threads));
+        }
+        // 上一次关闭时已为所有封存段补写了提示文件
+        Files.deleteIfExists(Checkpoint.path(dataDir));
+        System.out.printf("hint, %2d decoders: %6d ms%n", cores, open(dataDir, config, cores));
+        // 关闭时写了检查点，不再读取任何段
+        System.out.printf("checkpoint:         %6d ms%n", open(dataDir, config, cores));
+    }
+
+    private static long open(String dataDir, StoreConfig config, int threads) throws IOException {
+        config.setReloadThreads(threads);
+        long start = System.nanoTime();
+        NormalStore store = new NormalStore(dataDir, config);
+        long cost = (System.nanoTime() - start) / 1_000_000;
+        store.close();
+        return cost;
+    }
+
+    private static void deleteHints(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(HintFile.SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -11,9 +11,13 @@ import com.alibaba.fastjson.JSON;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Serializable;
+
 @Setter
 @Getter
-public abstract class AbstractCommand implements Command {
+public abstract class AbstractCommand implements Command, Serializable {
+    private static final long serialVersionUID = 1L;
+
     /*
     * 命令类型
     * */
@@ -13,18 +13,44 @@ import lombok.Setter;
 @Setter
 @Getter
 public class CommandPos {
-    private int pos;
+    /*
+    * 所在段号
+    * */
+    private int segmentId;
+    /*
+    * 段内偏移，支持超过 2GB 的段
+    * */
+    private long pos;
     private int len;
 
-    public CommandPos(int pos, int len) {
+    public CommandPos(int segmentId, long pos, int len) {
+        this.segmentId = segmentId;
         this.pos = pos;
         this.len = len;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CommandPos)) {
+            return false;
+        }
+        CommandPos that = (CommandPos) o;
+        return segmentId == that.segmentId && pos == that.pos && len == that.len;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * segmentId + Long.hashCode(pos)) + len;
+    }
+
     @Override
     public String toString() {
         return "CommandPos{" +
-                "pos=" + pos +
+                "segmentId=" + segmentId +
+                ", pos=" + pos +
                 ", len=" + len +
                 '}';
     }
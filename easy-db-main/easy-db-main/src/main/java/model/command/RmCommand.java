@@ -13,6 +13,8 @@ import lombok.Setter;
 @Setter
 @Getter
 public class RmCommand extends AbstractCommand {
+    private static final long serialVersionUID = 1L;
+
     private String key;
 
     public RmCommand(String key) {
@@ -13,13 +13,25 @@ import lombok.Setter;
 @Setter
 @Getter
 public class SetCommand extends AbstractCommand {
+    private static final long serialVersionUID = 1L;
+
     private String key;
 
     private String value;
 
+    /*
+    * 过期时刻（毫秒时间戳），0 表示不过期
+    * */
+    private long expireAt;
+
     public SetCommand(String key, String value) {
+        this(key, value, 0);
+    }
+
+    public SetCommand(String key, String value, long expireAt) {
         super(CommandTypeEnum.SET);
         this.key = key;
         this.value = value;
+        this.expireAt = expireAt;
     }
 }
@@ -0,0 +1,342 @@
+package service;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Store 的异步包装：所有操作立即返回 CompletableFuture，由固定数量的 I/O 线程执行。
+ * <p>
+ * 排队中的写入由一个线程按提交顺序取出，合并成一个 {@link WriteBatch} 一次写入；
+ * 排队中的读取由空闲的 I/O 线程取出，合并成一次 {@link Store#multiGet}。
+ * 未完成的操作数超过上限时新操作直接以 RejectedExecutionException 失败，调用方据此做背压。
+ * <p>
+ * future 在 I/O 线程上完成，回调不应阻塞；关闭时处理完已排队的操作，不关闭底层 Store
+ */
+public class AsyncStore implements Closeable {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AsyncStore.class);
+    private final String logFormat = "[AsyncStore][{}]: {}";
+
+    /**
+     * 每次合并的操作数上限
+     */
+    private static final int MAX_BATCH = 256;
+
+    private final Store store;
+    private final ExecutorService executor;
+    private final int threads;
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentLinkedQueue<WriteOp> writes = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ReadOp> reads = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeDraining = new AtomicBoolean();
+    private final AtomicInteger readDrainers = new AtomicInteger();
+    private volatile boolean closed;
+
+    public AsyncStore(Store store) {
+        this(store, Runtime.getRuntime().availableProcessors(), 10_000);
+    }
+
+    /**
+     * @param threads     I/O 线程数
+     * @param maxInFlight 未完成操作数的上限
+     */
+    public AsyncStore(Store store, int threads, int maxInFlight) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+        this.maxInFlight = maxInFlight;
+        AtomicInteger threadId = new AtomicInteger();
+        // 同时运行的取队任务不超过线程数加一，任务队列不会无限增长
+        this.executor = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "async-store-io-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return multiGet(Collections.singletonList(key)).thenApply(values -> values.get(key));
+    }
+
+    public CompletableFuture<Map<String, String>> multiGet(Collection<String> keys) {
+        ReadOp op = new ReadOp(keys);
+        if (!admit(op.future)) {
+            return op.future;
+        }
+        reads.add(op);
+        scheduleReads();
+        return op.future;
+    }
+
+    public CompletableFuture<Void> set(String key, String value) {
+        return submitWrite(Collections.singletonList(new SetCommand(key, value)));
+    }
+
+    public CompletableFuture<Void> set(String key, String value, long ttlMillis) {
+        return submitWrite(Collections.singletonList(new SetCommand(key, value, NormalStore.expireAt(ttlMillis))));
+    }
+
+    public CompletableFuture<Void> rm(String key) {
+        return submitWrite(Collections.singletonList(new RmCommand(key)));
+    }
+
+    public CompletableFuture<Void> write(WriteBatch batch) {
+        return submitWrite(batch.getCommands());
+    }
+
+    public CompletableFuture<String> get(String key, BiConsumer<? super String, ? super Throwable> callback) {
+        return get(key).whenComplete(callback);
+    }
+
+    public CompletableFuture<Map<String, String>> multiGet(Collection<String> keys,
+                                                           BiConsumer<? super Map<String, String>, ? super Throwable> callback) {
+        return multiGet(keys).whenComplete(callback);
+    }
+
+    public CompletableFuture<Void> set(String key, String value, BiConsumer<? super Void, ? super Throwable> callback) {
+        return set(key, value).whenComplete(callback);
+    }
+
+    public CompletableFuture<Void> rm(String key, BiConsumer<? super Void, ? super Throwable> callback) {
+        return rm(key).whenComplete(callback);
+    }
+
+    public CompletableFuture<Void> write(WriteBatch batch, BiConsumer<? super Void, ? super Throwable> callback) {
+        return write(batch).whenComplete(callback);
+    }
+
+    /**
+     * 当前未完成的操作数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private CompletableFuture<Void> submitWrite(List<Command> commands) {
+        WriteOp op = new WriteOp(commands);
+        if (!admit(op.future)) {
+            return op.future;
+        }
+        writes.add(op);
+        scheduleWrites();
+        return op.future;
+    }
+
+    private boolean admit(CompletableFuture<?> future) {
+        if (closed) {
+            future.completeExceptionally(new RejectedExecutionException("async store is closed"));
+            return false;
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("too many requests in flight: " + maxInFlight));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 写入只由一个任务取队，保证按提交顺序写入
+     */
+    private void scheduleWrites() {
+        if (writeDraining.compareAndSet(false, true)) {
+            executor.execute(this::drainWrites);
+        }
+    }
+
+    private void scheduleReads() {
+        int n;
+        while ((n = readDrainers.get()) < threads) {
+            if (readDrainers.compareAndSet(n, n + 1)) {
+                executor.execute(this::drainReads);
+                return;
+            }
+        }
+    }
+
+    private void drainWrites() {
+        try {
+            List<WriteOp> batch = new ArrayList<>();
+            WriteOp op;
+            while (true) {
+                while (batch.size() < MAX_BATCH && (op = writes.poll()) != null) {
+                    batch.add(op);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                applyWrites(batch);
+                inFlight.addAndGet(-batch.size());
+                batch.clear();
+            }
+        } finally {
+            writeDraining.set(false);
+        }
+        // 退出前入队的写入可能没有触发新的取队任务
+        if (!writes.isEmpty()) {
+            scheduleWrites();
+        }
+    }
+
+    /**
+     * 把多个请求合并成一个批量写入；合并写入失败时逐个请求重写一次，
+     * 只让出错的请求失败。set 和 rm 重复写入结果不变，合并写入已部分生效时重写也是安全的
+     */
+    private void applyWrites(List<WriteOp> batch) {
+        if (batch.size() == 1) {
+            applyWrite(batch.get(0));
+            return;
+        }
+        try {
+            WriteBatch writeBatch = new WriteBatch();
+            for (WriteOp op : batch) {
+                writeBatch.getCommands().addAll(op.commands);
+            }
+            store.write(writeBatch);
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "applyWrites", "write of " + batch.size() + " requests failed, retrying one by one");
+            for (WriteOp op : batch) {
+                applyWrite(op);
+            }
+            return;
+        }
+        for (WriteOp op : batch) {
+            op.future.complete(null);
+        }
+    }
+
+    private void applyWrite(WriteOp op) {
+        try {
+            // 带过期时间的单条写入已经算好了过期时刻，和多条写入一样走批量写入
+            Command single = op.commands.size() == 1 ? op.commands.get(0) : null;
+            if (single instanceof RmCommand) {
+                store.rm(single.getKey());
+            } else if (single instanceof SetCommand && ((SetCommand) single).getExpireAt() == 0) {
+                store.set(single.getKey(), ((SetCommand) single).getValue());
+            } else {
+                WriteBatch writeBatch = new WriteBatch();
+                writeBatch.getCommands().addAll(op.commands);
+                store.write(writeBatch);
+            }
+            op.future.complete(null);
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "applyWrite", "write of " + op.commands.size() + " commands failed");
+            op.future.completeExceptionally(t);
+        }
+    }
+
+    private void drainReads() {
+        try {
+            List<ReadOp> batch = new ArrayList<>();
+            ReadOp op;
+            while (true) {
+                while (batch.size() < MAX_BATCH && (op = reads.poll()) != null) {
+                    batch.add(op);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                applyReads(batch);
+                inFlight.addAndGet(-batch.size());
+                batch.clear();
+            }
+        } finally {
+            readDrainers.decrementAndGet();
+        }
+        if (!reads.isEmpty()) {
+            scheduleReads();
+        }
+    }
+
+    private void applyReads(List<ReadOp> batch) {
+        try {
+            if (batch.size() == 1 && batch.get(0).keys.size() == 1) {
+                String key = batch.get(0).keys.iterator().next();
+                String value = store.get(key);
+                batch.get(0).future.complete(value == null ? Collections.emptyMap() : Collections.singletonMap(key, value));
+                return;
+            }
+            Set<String> keys = new HashSet<>();
+            for (ReadOp op : batch) {
+                keys.addAll(op.keys);
+            }
+            Map<String, String> values = store.multiGet(keys);
+            for (ReadOp op : batch) {
+                Map<String, String> result = new HashMap<>();
+                for (String key : op.keys) {
+                    String value = values.get(key);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                }
+                op.future.complete(result);
+            }
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "applyReads", "read of " + batch.size() + " requests failed");
+            for (ReadOp op : batch) {
+                op.future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * 不再接受新操作，等待已排队的操作完成
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.shutdown();
+    }
+
+    private static class WriteOp {
+        private final List<Command> commands;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        WriteOp(List<Command> commands) {
+            this.commands = commands;
+        }
+    }
+
+    private static class ReadOp {
+        private final Collection<String> keys;
+        private final CompletableFuture<Map<String, String>> future = new CompletableFuture<>();
+
+        ReadOp(Collection<String> keys) {
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 布隆过滤器：每个 key 占 bitsPerKey 位，哈希函数个数取 bitsPerKey * ln2。
+ * 用一个 64 位哈希拆成两半做双重哈希，得到各个哈希函数的位置。
+ * <p>
+ * 序列化格式：哈希函数个数(1) 位数组(8 的倍数字节)
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numHashes;
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * @param hashes 各 key 的 {@link #hash} 值
+     */
+    public static BloomFilter build(long[] hashes, int count, int bitsPerKey) {
+        int numHashes = (int) Math.max(1, Math.min(30, Math.round(bitsPerKey * 0.69)));
+        long numBits = Math.max(64, (long) count * bitsPerKey);
+        long[] bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (numBits + 63) >>> 6)];
+        BloomFilter filter = new BloomFilter(bits, numHashes);
+        for (int i = 0; i < count; i++) {
+            filter.add(hashes[i]);
+        }
+        return filter;
+    }
+
+    public static BloomFilter decode(ByteBuffer buffer, int offset, int length) {
+        int numHashes = buffer.get(offset);
+        long[] bits = new long[(length - 1) / 8];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong(offset + 1 + i * 8);
+        }
+        return new BloomFilter(bits, numHashes);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + bits.length * 8);
+        buffer.put((byte) numHashes);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return false 时 key 一定不在集合中
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length << 6;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int sizeBytes() {
+        return 1 + bits.length * 8;
+    }
+
+    private void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length << 6;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * key 字符序列的 64 位哈希（FNV-1a 加 murmur3 的收尾混合）
+     */
+    public static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
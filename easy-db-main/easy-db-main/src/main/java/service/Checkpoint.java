@@ -0,0 +1,192 @@
+package service;
+
+import lombok.Getter;
+import model.command.CommandPos;
+import utils.Crc32c;
+import utils.RecordCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * 索引检查点文件 CHECKPOINT：保存某个日志位置（LSN，段号+段内偏移）时的索引和当时存在的段，
+ * 启动时载入检查点后只需重放 LSN 之后的日志。
+ * <p>
+ * 索引是在不阻塞写入的情况下遍历的，可能已经包含 LSN 之后的部分写入；
+ * 重放 LSN 之后的记录是幂等的，最终结果与按日志顺序重放全部记录相同。
+ * 各段的存活/可回收字节数与遍历到的索引不在同一时刻，不保存，载入后按索引重新统计。
+ * <p>
+ * 格式：MAGIC(4) 版本(4) LSN 段号(4) LSN 偏移(8) 段数(4) 各段号(4)，
+ * 之后每个 key 为 varint keyLen key 段号(4) 偏移(8) varint len 过期时刻(8，0 表示不过期)，文件末尾是前面所有字节的 CRC32C(4)
+ */
+public final class Checkpoint {
+
+    public static final String FILE_NAME = "CHECKPOINT";
+
+    private static final int MAGIC = 0x455A4443;
+    private static final int VERSION = 3;
+    private static final int CRC_SIZE = 4;
+
+    @Getter
+    private final int lsnSegment;
+    @Getter
+    private final long lsnOffset;
+    /**
+     * 写检查点时存在的段
+     */
+    @Getter
+    private final Set<Integer> segmentIds;
+    private final byte[] bytes;
+    private final int entriesStart;
+
+    private Checkpoint(int lsnSegment, long lsnOffset, Set<Integer> segmentIds, byte[] bytes, int entriesStart) {
+        this.lsnSegment = lsnSegment;
+        this.lsnOffset = lsnOffset;
+        this.segmentIds = segmentIds;
+        this.bytes = bytes;
+        this.entriesStart = entriesStart;
+    }
+
+    public static Path path(String dataDir) {
+        return Paths.get(dataDir, FILE_NAME);
+    }
+
+    /**
+     * 写检查点：先写临时文件、刷盘后原子替换上一个检查点。
+     * 遍历索引时写线程仍在应用新记录，检查点可能包含 LSN 之后的记录，所以替换前先把活跃段刷盘，
+     * 检查点中的位置都指向已落盘的记录，崩溃后不会被截掉并被之后的记录复用
+     *
+     * @param segmentIds 取 LSN 时存在的段
+     * @param expiries   带过期时间的 key 的过期时刻
+     */
+    public static void write(Path target, int lsnSegment, long lsnOffset, Collection<Integer> segmentIds,
+                             KeyIndex index, Map<String, Long> expiries, SegmentManager segments) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        Checksum crc = Crc32c.create();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lsnSegment);
+            out.writeLong(lsnOffset);
+            out.writeInt(segmentIds.size());
+            for (int segmentId : segmentIds) {
+                out.writeInt(segmentId);
+            }
+            IOException[] error = new IOException[1];
+            byte[] scratch = new byte[5];
+            index.forEach((key, pos) -> {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                    out.write(scratch, 0, RecordCodec.putVarInt(scratch, 0, keyBytes.length));
+                    out.write(keyBytes);
+                    out.writeInt(pos.getSegmentId());
+                    out.writeLong(pos.getPos());
+                    out.write(scratch, 0, RecordCodec.putVarInt(scratch, 0, pos.getLen()));
+                    Long expireAt = expiries.get(key);
+                    out.writeLong(expireAt == null ? 0 : expireAt);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            out.flush();
+            // 校验值本身不参与校验，直接写到底层文件
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        // 封存段在封存时已刷盘，遍历期间切换出的段也一样，只需要刷当前的活跃段
+        segments.force();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读出检查点并确认它仍然适用于当前的段：写检查点时的段都还在、没有被截短，
+     * 之后新增的只能是写满切换出来的新段。之后发生过合并的检查点作废
+     *
+     * @return 检查点；不存在、校验不过或已作废时返回 null
+     */
+    public static Checkpoint read(Path path, SegmentManager segments) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 24 + CRC_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length - CRC_SIZE;
+        Checksum crc = Crc32c.create();
+        crc.update(bytes, 0, end);
+        if ((int) crc.getValue() != buffer.getInt(end) || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int lsnSegment = buffer.getInt();
+        long lsnOffset = buffer.getLong();
+        int count = buffer.getInt();
+        Set<Integer> segmentIds = new TreeSet<>();
+        for (int i = 0; i < count; i++) {
+            segmentIds.add(buffer.getInt());
+        }
+        DataFile lsnFile = segments.get(lsnSegment);
+        if (lsnFile == null || lsnFile.tail() < lsnOffset) {
+            return null;
+        }
+        int maxOrdinal = 0;
+        for (int segmentId : segmentIds) {
+            if (segments.get(segmentId) == null) {
+                return null;
+            }
+            maxOrdinal = Math.max(maxOrdinal, SegmentManager.ordinal(segmentId));
+        }
+        for (int segmentId : segments.getSegments().keySet()) {
+            if (!segmentIds.contains(segmentId)
+                    && (SegmentManager.generation(segmentId) != 0 || SegmentManager.ordinal(segmentId) <= maxOrdinal)) {
+                return null;
+            }
+        }
+        return new Checkpoint(lsnSegment, lsnOffset, segmentIds, bytes, buffer.position());
+    }
+
+    /**
+     * 按文件顺序回调检查点中的每个 key
+     */
+    public void forEach(IndexLoader.RecordApplier applier) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length - CRC_SIZE;
+        int p = entriesStart;
+        while (p < end) {
+            int keyLen = RecordCodec.readVarInt(buffer, p);
+            p += RecordCodec.varIntSize(keyLen);
+            String key = new String(bytes, p, keyLen, StandardCharsets.UTF_8);
+            p += keyLen;
+            int segmentId = buffer.getInt(p);
+            long pos = buffer.getLong(p + 4);
+            p += 12;
+            int len = RecordCodec.readVarInt(buffer, p);
+            p += RecordCodec.varIntSize(len);
+            long expireAt = buffer.getLong(p);
+            p += 8;
+            applier.apply(key, new CommandPos(segmentId, pos, len), false, expireAt);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package service;
+
+import java.util.List;
+
+/**
+ * LSMTree 的合并策略：根据当前各层的有序表决定下一次合并哪些表、输出到哪一层
+ */
+public interface CompactionStrategy {
+
+    /**
+     * 在 LSMTree 的锁内调用
+     *
+     * @param levels 当前各层，第 0 层从新到旧，其余层按 key 升序且层内互不重叠
+     * @return 需要做的合并；不需要时返回 null
+     */
+    CompactionTask pick(List<List<SSTable>> levels);
+
+    static CompactionStrategy create(LSMTreeConfig config) {
+        return config.getCompactionStrategy() == CompactionStrategyTypeEnum.SIZE_TIERED
+                ? new SizeTieredCompaction(config) : new LeveledCompaction(config);
+    }
+}
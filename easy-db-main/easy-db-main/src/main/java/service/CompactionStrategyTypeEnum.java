@@ -0,0 +1,12 @@
+package service;
+
+public enum CompactionStrategyTypeEnum {
+    /*
+     * 分层合并：每层 key 范围互不重叠，读放大和空间放大小，写放大大
+     * */
+    LEVELED,
+    /*
+     * 按大小分档合并：大小相近的表合成一张更大的表，写放大小，读放大和空间放大大
+     * */
+    SIZE_TIERED
+}
@@ -0,0 +1,44 @@
+package service;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 一次合并：把若干输入表归并后写到输出层。
+ * 输入按新旧排列，同一个 key 以排在前面的表中的记录为准。
+ * 输出层为第 0 层时，输入必须是第 0 层中新旧相邻的一段，输出放在它们原来的位置
+ */
+@Getter
+public class CompactionTask {
+
+    /**
+     * 触发合并的层
+     */
+    private final int level;
+    private final int outputLevel;
+    /**
+     * 从新到旧
+     */
+    private final List<SSTable> inputs;
+    /**
+     * 输出的单个表达到该大小后换下一个表
+     */
+    private final long maxOutputFileBytes;
+
+    public CompactionTask(int level, int outputLevel, List<SSTable> inputs, long maxOutputFileBytes) {
+        this.level = level;
+        this.outputLevel = outputLevel;
+        this.inputs = inputs;
+        this.maxOutputFileBytes = maxOutputFileBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionTask{" +
+                "level=" + level +
+                ", outputLevel=" + outputLevel +
+                ", inputs=" + inputs.size() +
+                '}';
+    }
+}
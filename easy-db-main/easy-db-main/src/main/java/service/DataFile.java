@@ -0,0 +1,360 @@
+package service;
+
+import utils.RecordCodec;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据文件句柄：长期持有一个追加写通道和一组定位读通道，
+ * 尾部偏移量记录在内存中，避免每次读写都重新打开文件。新建的文件会先写入格式文件头。
+ * 一个 DataFile 对应分段日志中的一个段
+ */
+public class DataFile implements Closeable {
+
+    /**
+     * 记录长度前缀所占字节数
+     */
+    public static final int LEN_SIZE = 4;
+
+    private static final int READ_CHANNELS = 4;
+
+    private final Path path;
+
+    private final StoreConfig config;
+
+    /**
+     * 追加写通道，只由持有本对象锁的线程使用
+     */
+    private FileChannel appendChannel;
+
+    /**
+     * 定位读通道池，按轮询分配给读线程
+     */
+    private volatile FileChannel[] readChannels;
+
+    private final AtomicInteger readCursor = new AtomicInteger();
+
+    /**
+     * 内存映射读，未开启时为 null
+     */
+    private volatile MappedReader mappedReader;
+
+    private final ByteBuffer lenBuffer = ByteBuffer.allocate(LEN_SIZE);
+
+    /**
+     * 批量追加时复用的拼接缓冲区
+     */
+    private ByteBuffer batchBuffer;
+
+    /**
+     * 文件尾部偏移量
+     */
+    private volatile long tail;
+
+    /**
+     * 已封存，不再追加
+     */
+    private volatile boolean sealed;
+
+    /**
+     * 仍被索引引用的记录字节数（含长度前缀）
+     */
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    /**
+     * 已被覆盖或删除、可以回收的记录字节数（含长度前缀）
+     */
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    public DataFile(String filePath) throws IOException {
+        this(filePath, new StoreConfig());
+    }
+
+    public DataFile(String filePath, StoreConfig config) throws IOException {
+        this.path = Paths.get(filePath);
+        this.config = config;
+        open();
+    }
+
+    private void open() throws IOException {
+        appendChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        tail = appendChannel.size();
+        appendChannel.position(tail);
+        if (tail == 0) {
+            ByteBuffer header = ByteBuffer.wrap(RecordCodec.fileHeader());
+            while (header.hasRemaining()) {
+                appendChannel.write(header);
+            }
+            tail = RecordCodec.FILE_HEADER_SIZE;
+        }
+        FileChannel[] channels = new FileChannel[READ_CHANNELS];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        readChannels = channels;
+        mappedReader = config.isMmapEnabled()
+                ? new MappedReader(channels[0], config.getMmapChunkBytes(), config.getMmapMaxBytes())
+                : null;
+    }
+
+    /**
+     * 以一次聚集写追加“长度前缀+数据”
+     *
+     * @return 数据（不含长度前缀）在文件中的起始偏移
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        long start = tail;
+        lenBuffer.clear();
+        lenBuffer.putInt(payload.length);
+        lenBuffer.flip();
+        ByteBuffer[] srcs = {lenBuffer, ByteBuffer.wrap(payload)};
+        long total = LEN_SIZE + payload.length;
+        try {
+            long written = 0;
+            while (written < total) {
+                written += appendChannel.write(srcs);
+            }
+        } catch (IOException e) {
+            // 写失败时截掉半条记录，保证文件尾部始终是完整记录
+            appendChannel.truncate(start);
+            appendChannel.position(start);
+            throw e;
+        }
+        tail = start + total;
+        return start + LEN_SIZE;
+    }
+
+    /**
+     * 把一批记录拼成连续的“长度前缀+数据”帧，用一次写入追加
+     *
+     * @return 每条记录数据的起始偏移
+     */
+    public synchronized long[] appendBatch(List<byte[]> payloads) throws IOException {
+        int total = 0;
+        for (byte[] payload : payloads) {
+            total += LEN_SIZE + payload.length;
+        }
+        if (batchBuffer == null || batchBuffer.capacity() < total) {
+            batchBuffer = ByteBuffer.allocateDirect(Math.max(total, 64 * 1024));
+        }
+        long start = tail;
+        long[] positions = new long[payloads.size()];
+        ByteBuffer buffer = batchBuffer;
+        buffer.clear();
+        for (int i = 0; i < positions.length; i++) {
+            byte[] payload = payloads.get(i);
+            positions[i] = start + buffer.position() + LEN_SIZE;
+            buffer.putInt(payload.length);
+            buffer.put(payload);
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                appendChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            appendChannel.truncate(start);
+            appendChannel.position(start);
+            throw e;
+        }
+        tail = start + total;
+        return positions;
+    }
+
+    /**
+     * 优先从内存映射中拷贝；不在映射范围内时定位读，不依赖也不修改共享的文件指针
+     */
+    public byte[] read(long pos, int len) throws IOException {
+        MappedReader mapped = mappedReader;
+        if (mapped != null) {
+            byte[] bytes = mapped.read(pos, len, tail);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        FileChannel[] channels = readChannels;
+        FileChannel channel = channels[(readCursor.getAndIncrement() & Integer.MAX_VALUE) % channels.length];
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos + buffer.position());
+            if (n < 0) {
+                throw new EOFException("read beyond end of " + path + " at " + pos);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 从文件头之后顺序扫描记录，直到文件尾或第一条校验不过的记录。
+     * 批量记录展开成内层记录回调，调用方看到的和逐条写入时一样
+     *
+     * @return 最后一条完整记录之后的偏移
+     */
+    public long scan(RecordVisitor visitor) throws IOException {
+        long start = RecordCodec.FILE_HEADER_SIZE;
+        long len = tail;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile()), 1 << 16))) {
+            in.skipBytes(RecordCodec.FILE_HEADER_SIZE);
+            while (len - start >= LEN_SIZE) {
+                int cmdLen = in.readInt();
+                if (cmdLen <= 0 || cmdLen > len - start - LEN_SIZE) {
+                    break;
+                }
+                byte[] bytes = new byte[cmdLen];
+                in.readFully(bytes);
+                ByteBuffer record = ByteBuffer.wrap(bytes);
+                if (!RecordCodec.isValid(record)) {
+                    break;
+                }
+                if (RecordCodec.readType(record) == RecordCodec.TYPE_BATCH) {
+                    List<int[]> inner = new ArrayList<>();
+                    RecordCodec.forEachInBatch(record, (offset, innerLen) -> inner.add(new int[]{offset, innerLen}));
+                    for (int[] r : inner) {
+                        visitor.visit(start + LEN_SIZE + r[0], r[1], ByteBuffer.wrap(Arrays.copyOfRange(bytes, r[0], r[0] + r[1])));
+                    }
+                } else {
+                    visitor.visit(start + LEN_SIZE, cmdLen, record);
+                }
+                start += LEN_SIZE + cmdLen;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * 截掉 size 之后的内容，用于丢弃崩溃时写了一半的尾部记录
+     */
+    public synchronized void truncate(long size) throws IOException {
+        MappedReader mapped = mappedReader;
+        if (mapped != null) {
+            mapped.truncate(size);
+        }
+        appendChannel.truncate(size);
+        appendChannel.position(size);
+        tail = size;
+    }
+
+    /**
+     * 已封存的段在封存时刷过盘，直接返回
+     */
+    public synchronized void force(boolean metaData) throws IOException {
+        if (sealed) {
+            return;
+        }
+        appendChannel.force(metaData);
+    }
+
+    /**
+     * 封存：刷盘并关闭追加通道，此后文件只读，整个文件都可以映射
+     */
+    public synchronized void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        appendChannel.force(false);
+        appendChannel.close();
+        sealed = true;
+        MappedReader mapped = mappedReader;
+        if (mapped != null) {
+            mapped.seal(tail);
+        }
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public long tail() {
+        return tail;
+    }
+
+    /**
+     * 数据字节数，不含文件头
+     */
+    public long size() {
+        return tail - RecordCodec.FILE_HEADER_SIZE;
+    }
+
+    public void addLive(long bytes) {
+        liveBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 记录从存活变为可回收
+     */
+    public void markDead(long bytes) {
+        liveBytes.addAndGet(-bytes);
+        deadBytes.addAndGet(bytes);
+    }
+
+    public void addDead(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 载入检查点后按索引重新统计时整体设置
+     */
+    public void resetBytes(long live, long dead) {
+        liveBytes.set(live);
+        deadBytes.set(dead);
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    public long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    /**
+     * 可回收字节占全部记录字节的比例
+     */
+    public double deadRatio() {
+        long dead = deadBytes.get();
+        long total = dead + liveBytes.get();
+        return total == 0 ? 0 : (double) dead / total;
+    }
+
+    public String getFilePath() {
+        return path.toString();
+    }
+
+    private void closeChannels() throws IOException {
+        if (!sealed) {
+            appendChannel.force(false);
+            appendChannel.close();
+        }
+        for (FileChannel channel : readChannels) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeChannels();
+    }
+
+    public interface RecordVisitor {
+        /**
+         * @param pos    记录数据（不含长度前缀）的偏移
+         * @param record 已校验的记录
+         */
+        void visit(long pos, int len, ByteBuffer record) throws IOException;
+    }
+}
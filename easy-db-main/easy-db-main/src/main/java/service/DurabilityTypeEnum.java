@@ -0,0 +1,16 @@
+package service;
+
+public enum DurabilityTypeEnum {
+    /*
+     * 从不主动刷盘，交给操作系统页缓存
+     * */
+    NO_SYNC,
+    /*
+     * 每隔固定毫秒数刷一次盘，写入在写进页缓存后即返回
+     * */
+    SYNC_EVERY_N_MS,
+    /*
+     * 每一批写入都刷盘后才返回
+     * */
+    SYNC_EVERY_BATCH
+}
@@ -0,0 +1,12 @@
+package service;
+
+public enum EvictionPolicyTypeEnum {
+    /*
+     * 近似 LRU：抽样的 key 中淘汰最久没有被访问的
+     * */
+    LRU,
+    /*
+     * 近似 LFU：抽样的 key 中淘汰访问频率最低的，频率是随时间衰减的对数计数
+     * */
+    LFU
+}
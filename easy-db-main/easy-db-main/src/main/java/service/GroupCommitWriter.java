@@ -0,0 +1,317 @@
+package service;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 组提交写入器：并发的写请求进入无锁队列，由唯一的写线程批量取出，
+ * 一次写入、按刷盘策略至多一次 fsync，再按日志顺序应用索引并唤醒所有等待者
+ */
+public class GroupCommitWriter implements Closeable {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(GroupCommitWriter.class);
+    private final String logFormat = "[GroupCommitWriter][{}]: {}";
+
+    private final SegmentManager segments;
+    private final StoreConfig config;
+
+    /**
+     * 批次写入（按刷盘策略刷盘）后调用，负责按日志顺序更新索引；抛出异常前须撤销已应用的部分
+     */
+    private final Consumer<List<Entry>> applier;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * 失败的批次没能截掉时记下原因，此后拒绝所有写入，存储只读
+     */
+    private volatile Throwable failure;
+
+    /**
+     * 已写入但还未刷盘
+     */
+    private boolean dirty;
+    private long lastSyncNanos = System.nanoTime();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncNanos = new AtomicLong();
+    private final AtomicLong maxSyncNanos = new AtomicLong();
+
+    public GroupCommitWriter(SegmentManager segments, StoreConfig config, Consumer<List<Entry>> applier) {
+        this.segments = segments;
+        this.config = config;
+        this.applier = applier;
+        this.writerThread = new Thread(this::runLoop, "group-commit-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 提交一条已编码的记录，返回的 future 在记录按刷盘策略落盘且索引更新后完成
+     */
+    public CompletableFuture<Void> submit(String key, byte[] record) {
+        if (!running || failure != null) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(rejection());
+            return failed;
+        }
+        Entry entry = new Entry(key, record);
+        queue.offer(entry);
+        // 入队时可能正好在关闭：写线程已退出、关闭时的清理也已做完，这条不会再有人处理，自己移出并失败
+        if (!running && queue.remove(entry)) {
+            entry.future.completeExceptionally(new IOException("writer is closed"));
+            return entry.future;
+        }
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(writerThread);
+        }
+        return entry.future;
+    }
+
+    private void runLoop() {
+        List<Entry> batch = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            drain(batch);
+            if (batch.isEmpty()) {
+                idle();
+                continue;
+            }
+            if (failure != null) {
+                for (Entry entry : batch) {
+                    entry.future.completeExceptionally(rejection());
+                }
+                batch.clear();
+                continue;
+            }
+            payloads.clear();
+            for (Entry entry : batch) {
+                payloads.add(entry.record);
+            }
+            long[] positions = new long[payloads.size()];
+            int segmentId = -1;
+            boolean applying = false;
+            try {
+                segmentId = segments.appendBatch(payloads, positions);
+                for (int i = 0; i < positions.length; i++) {
+                    batch.get(i).segmentId = segmentId;
+                    batch.get(i).pos = positions[i];
+                }
+                dirty = true;
+                if (config.getDurability() == DurabilityTypeEnum.SYNC_EVERY_BATCH) {
+                    sync();
+                }
+                applying = true;
+                applier.accept(batch);
+            } catch (Throwable t) {
+                LoggerUtil.error(LOGGER, t, logFormat, "runLoop", "batch write failed");
+                if (segmentId >= 0) {
+                    rollback(segmentId, positions[0] - DataFile.LEN_SIZE, applying);
+                }
+                for (Entry entry : batch) {
+                    entry.future.completeExceptionally(t);
+                }
+                batch.clear();
+                continue;
+            }
+            for (Entry entry : batch) {
+                entry.future.complete(null);
+            }
+            // 这批已经确认，之后的间隔刷盘失败不能再让它们失败
+            if (config.getDurability() == DurabilityTypeEnum.SYNC_EVERY_N_MS && syncDue()) {
+                trySync();
+            }
+            batches.incrementAndGet();
+            records.addAndGet(batch.size());
+            updateMax(maxBatchSize, batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * 批次写入后刷盘或应用索引失败时，把段截回这批之前的尾部，否则调用方收到失败的写入会在重启后重新出现。
+     * 应用失败时 applier 已撤销索引更新；读线程可能已经按这批的位置读过记录，这时再换一个新段，
+     * 保证这些位置不会被之后的记录复用。截断失败时不再接受写入，避免之后的记录接在失败的批次后面
+     */
+    private void rollback(int segmentId, long tail, boolean applied) {
+        try {
+            segments.truncate(segmentId, tail);
+            if (applied) {
+                segments.rollActive();
+            }
+        } catch (Throwable t) {
+            failure = t;
+            LoggerUtil.error(LOGGER, t, logFormat, "rollback", "failed to truncate segment " + segmentId + " to " + tail
+                    + ", rejecting all further writes");
+        }
+    }
+
+    private IOException rejection() {
+        Throwable cause = failure;
+        return cause == null ? new IOException("writer is closed") : new IOException("writer failed, store is read-only", cause);
+    }
+
+    private void drain(List<Entry> batch) {
+        long bytes = 0;
+        Entry entry;
+        while (bytes < config.getMaxBatchBytes() && (entry = queue.poll()) != null) {
+            batch.add(entry);
+            bytes += DataFile.LEN_SIZE + entry.record.length;
+        }
+    }
+
+    /**
+     * 队列为空时休眠；间隔刷盘模式下按时醒来补一次刷盘
+     */
+    private void idle() {
+        long parkNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        if (dirty && config.getDurability() == DurabilityTypeEnum.SYNC_EVERY_N_MS) {
+            if (syncDue()) {
+                trySync();
+                return;
+            }
+            parkNanos = TimeUnit.MILLISECONDS.toNanos(config.getSyncIntervalMs()) - (System.nanoTime() - lastSyncNanos);
+        }
+        sleeping.set(true);
+        if (queue.isEmpty() && running) {
+            LockSupport.parkNanos(this, parkNanos);
+        }
+        sleeping.set(false);
+    }
+
+    private boolean syncDue() {
+        return System.nanoTime() - lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(config.getSyncIntervalMs());
+    }
+
+    private void trySync() {
+        try {
+            sync();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "trySync", "fsync failed");
+        }
+    }
+
+    private void sync() throws IOException {
+        long start = System.nanoTime();
+        segments.force();
+        long cost = System.nanoTime() - start;
+        dirty = false;
+        lastSyncNanos = System.nanoTime();
+        syncs.incrementAndGet();
+        syncNanos.addAndGet(cost);
+        updateMax(maxSyncNanos, cost);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 重试
+        }
+    }
+
+    public WriteStats getStats() {
+        return new WriteStats(batches.get(), records.get(), maxBatchSize.get(),
+                syncs.get(), syncNanos.get(), maxSyncNanos.get());
+    }
+
+    /**
+     * 停止写线程，队列中剩余的请求会先写完；除 NO_SYNC 外关闭前补一次刷盘
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            entry.future.completeExceptionally(new IOException("writer is closed"));
+        }
+        if (dirty && config.getDurability() != DurabilityTypeEnum.NO_SYNC) {
+            sync();
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private final String key;
+        private final byte[] record;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        /**
+         * 写入后记录所在的段号和数据在段内的偏移
+         */
+        private int segmentId;
+        private long pos;
+
+        Entry(String key, byte[] record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    /**
+     * 组提交统计快照
+     */
+    @Getter
+    public static class WriteStats {
+        private final long batches;
+        private final long records;
+        private final long maxBatchSize;
+        private final long syncs;
+        private final long syncNanos;
+        private final long maxSyncNanos;
+
+        public WriteStats(long batches, long records, long maxBatchSize, long syncs, long syncNanos, long maxSyncNanos) {
+            this.batches = batches;
+            this.records = records;
+            this.maxBatchSize = maxBatchSize;
+            this.syncs = syncs;
+            this.syncNanos = syncNanos;
+            this.maxSyncNanos = maxSyncNanos;
+        }
+
+        public double getAvgBatchSize() {
+            return batches == 0 ? 0 : (double) records / batches;
+        }
+
+        public double getAvgSyncMicros() {
+            return syncs == 0 ? 0 : syncNanos / 1000.0 / syncs;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteStats{" +
+                    "batches=" + batches +
+                    ", records=" + records +
+                    ", avgBatchSize=" + String.format("%.2f", getAvgBatchSize()) +
+                    ", maxBatchSize=" + maxBatchSize +
+                    ", syncs=" + syncs +
+                    ", avgSyncMicros=" + String.format("%.1f", getAvgSyncMicros()) +
+                    ", maxSyncMicros=" + maxSyncNanos / 1000 +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package service;
+
+import model.command.CommandPos;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * 基于 ConcurrentHashMap 的索引，默认实现；读不加锁，每个位置对象整体发布
+ */
+public class HashKeyIndex implements KeyIndex {
+
+    private final ConcurrentHashMap<String, CommandPos> map = new ConcurrentHashMap<>();
+
+    @Override
+    public CommandPos get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public CommandPos put(String key, CommandPos pos) {
+        return map.put(key, pos);
+    }
+
+    @Override
+    public CommandPos remove(String key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public boolean replace(String key, CommandPos expect, CommandPos update) {
+        return map.replace(key, expect, update);
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, CommandPos> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package service;
+
+import utils.Crc32c;
+import utils.RecordCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * 封存段的提示文件 data.&lt;段名&gt;.hint：按日志顺序保存每条记录的 key、类型、数据偏移和长度，
+ * 启动时据此重建索引，不必读出记录本身。
+ * <p>
+ * 格式：MAGIC(4) 版本(4) 数据文件长度(8)，之后每条为 类型(1) varint keyLen key varint len 偏移(8)，
+ * 带过期时间的记录再跟 过期时刻(8)，文件末尾是前面所有字节的 CRC32C(4)。数据文件长度与实际不符或校验不过时整个提示文件作废
+ */
+public final class HintFile {
+
+    public static final String SUFFIX = ".hint";
+
+    private static final int MAGIC = 0x455A4448;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int CRC_SIZE = 4;
+
+    private HintFile() {
+    }
+
+    /**
+     * 段文件对应的提示文件路径
+     */
+    public static String hintPath(String segmentPath) {
+        return segmentPath.substring(0, segmentPath.length() - SegmentManager.SUFFIX.length()) + SUFFIX;
+    }
+
+    /**
+     * 扫描一个已封存的段生成提示文件，先写临时文件、刷盘后原子替换
+     */
+    public static void write(DataFile segment) throws IOException {
+        Path target = Paths.get(hintPath(segment.getFilePath()));
+        Path tmp = Paths.get(target + ".tmp");
+        Checksum crc = Crc32c.create();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segment.tail());
+            byte[] scratch = new byte[5];
+            segment.scan((pos, len, record) -> {
+                byte[] key = RecordCodec.readKey(record).getBytes(StandardCharsets.UTF_8);
+                byte type = RecordCodec.readType(record);
+                out.writeByte(type);
+                out.write(scratch, 0, RecordCodec.putVarInt(scratch, 0, key.length));
+                out.write(key);
+                out.write(scratch, 0, RecordCodec.putVarInt(scratch, 0, len));
+                out.writeLong(pos);
+                if (type == RecordCodec.TYPE_SET_TTL) {
+                    out.writeLong(RecordCodec.readExpireAt(record));
+                }
+            });
+            out.flush();
+            // 校验值本身不参与校验，直接写到底层文件
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取提示文件并按顺序回调每条记录
+     *
+     * @return 提示文件存在且完整、与数据文件匹配时返回 true；返回 false 时没有任何回调
+     */
+    public static boolean read(DataFile segment, HintVisitor visitor) throws IOException {
+        byte[] bytes = readVerified(segment);
+        if (bytes == null) {
+            return false;
+        }
+        parse(bytes, visitor);
+        return true;
+    }
+
+    /**
+     * 读出提示文件并校验
+     *
+     * @return 文件内容；不存在、不完整或与数据文件不匹配时返回 null
+     */
+    public static byte[] readVerified(DataFile segment) throws IOException {
+        Path path = Paths.get(hintPath(segment.getFilePath()));
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < HEADER_SIZE + CRC_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length - CRC_SIZE;
+        Checksum crc = Crc32c.create();
+        crc.update(bytes, 0, end);
+        if ((int) crc.getValue() != buffer.getInt(end)
+                || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != segment.tail()) {
+            return null;
+        }
+        return bytes;
+    }
+
+    /**
+     * 解析 {@link #readVerified} 返回的内容
+     */
+    public static void parse(byte[] bytes, HintVisitor visitor) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length - CRC_SIZE;
+        int p = HEADER_SIZE;
+        while (p < end) {
+            byte type = bytes[p++];
+            int keyLen = RecordCodec.readVarInt(buffer, p);
+            p += RecordCodec.varIntSize(keyLen);
+            String key = new String(bytes, p, keyLen, StandardCharsets.UTF_8);
+            p += keyLen;
+            int len = RecordCodec.readVarInt(buffer, p);
+            p += RecordCodec.varIntSize(len);
+            long pos = buffer.getLong(p);
+            p += 8;
+            long expireAt = 0;
+            if (type == RecordCodec.TYPE_SET_TTL) {
+                expireAt = buffer.getLong(p);
+                p += 8;
+            }
+            visitor.visit(key, type, pos, len, expireAt);
+        }
+    }
+
+    public static void delete(String segmentPath) throws IOException {
+        Files.deleteIfExists(Paths.get(hintPath(segmentPath)));
+    }
+
+    public interface HintVisitor {
+        /**
+         * @param pos      记录数据（不含长度前缀）在段内的偏移
+         * @param expireAt 记录的过期时刻，不会过期时为 0
+         */
+        void visit(String key, byte type, long pos, int len, long expireAt);
+    }
+}
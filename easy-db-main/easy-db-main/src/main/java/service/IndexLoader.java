@@ -0,0 +1,314 @@
+package service;
+
+import model.command.CommandPos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+import utils.RecordCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流水线式的索引重建：
+ * 读线程按段号顺序大块顺序读取数据文件并在记录边界切块（有提示文件的封存段直接读提示文件），
+ * 解码线程池并行校验、解析各块，调用线程按提交顺序取回结果应用到索引，保证日志中靠后的写入生效
+ */
+public class IndexLoader {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(IndexLoader.class);
+    private final String logFormat = "[IndexLoader][{}]: {}";
+
+    /**
+     * 读线程每次顺序读取的块大小
+     */
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 读线程结束的标记
+     */
+    private static final Batch END = new Batch(-1, false);
+
+    private final SegmentManager segments;
+    private final int threads;
+
+    public IndexLoader(SegmentManager segments, int threads) {
+        this.segments = segments;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 重建索引，按日志顺序对每条记录回调 applier；活跃段的残缺尾部会被截掉，没有可用提示文件的封存段会重新生成
+     */
+    public void load(RecordApplier applier) throws IOException {
+        load(applier, Integer.MIN_VALUE, RecordCodec.FILE_HEADER_SIZE);
+    }
+
+    /**
+     * 只重放检查点之后的日志：跳过 fromSegment 之前的段，fromSegment 从 fromOffset 开始扫描，之后的段照常处理
+     */
+    public void load(RecordApplier applier, int fromSegment, long fromOffset) throws IOException {
+        AtomicInteger threadId = new AtomicInteger();
+        ExecutorService decoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "index-decoder-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 有界队列限制读线程领先的块数，也就限制了重建时的内存占用
+        BlockingQueue<Future<Batch>> pending = new ArrayBlockingQueue<>(threads * 2);
+        Thread reader = new Thread(() -> read(decoders, pending, fromSegment, fromOffset), "index-reader");
+        reader.setDaemon(true);
+        reader.start();
+        int hinted = 0;
+        int keys = 0;
+        try {
+            int skipping = -1;
+            while (true) {
+                Batch batch = pending.take().get();
+                if (batch == END) {
+                    break;
+                }
+                DataFile segment = segments.get(batch.segmentId);
+                if (batch.segmentId == skipping) {
+                    continue;
+                }
+                for (int i = 0; i < batch.count; i++) {
+                    applier.apply(batch.keys[i], batch.positions[i], batch.tombstones[i], batch.expireAts[i]);
+                }
+                keys += batch.count;
+                if (batch.hinted) {
+                    hinted++;
+                } else if (batch.corrupt || batch.last) {
+                    finishSegment(batch.segmentId, segment, batch.end, batch.segmentId != fromSegment);
+                    skipping = batch.segmentId;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("index reload interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("index reload failed", e.getCause());
+        } finally {
+            reader.interrupt();
+            decoders.shutdownNow();
+        }
+        LoggerUtil.info(LOGGER, logFormat, "load", "applied " + keys + " records from "
+                + segments.getSegments().tailMap(fromSegment).size() + " segments, " + hinted + " from hint files, " + threads + " decoders");
+    }
+
+    /**
+     * 一个扫描的段应用完毕：活跃段截掉残缺尾部，整段扫描过的封存段补写提示文件
+     */
+    private void finishSegment(int segmentId, DataFile segment, long end, boolean wholeSegment) throws IOException {
+        if (end < segment.tail()) {
+            if (segment.isSealed()) {
+                LoggerUtil.info(LOGGER, logFormat, "finishSegment",
+                        "segment " + segmentId + " is corrupt after " + end + ", ignoring the rest");
+            } else {
+                // 尾部是崩溃时没写完的记录，截掉后续追加才能接在完整记录之后
+                LoggerUtil.info(LOGGER, logFormat, "finishSegment", "truncating torn tail at " + end);
+                segment.truncate(end);
+            }
+        }
+        if (segment.isSealed() && wholeSegment) {
+            segments.writeHintAsync(segmentId);
+        }
+    }
+
+    /**
+     * 读线程：按段号顺序产生解码任务，结束或出错时放入标记
+     */
+    private void read(ExecutorService decoders, BlockingQueue<Future<Batch>> pending, int fromSegment, long fromOffset) {
+        try {
+            for (Map.Entry<Integer, DataFile> entry : segments.getSegments().tailMap(fromSegment).entrySet()) {
+                int segmentId = entry.getKey();
+                DataFile segment = entry.getValue();
+                byte[] hint = segment.isSealed() && segmentId != fromSegment ? HintFile.readVerified(segment) : null;
+                if (hint != null) {
+                    pending.put(decoders.submit(() -> decodeHint(segmentId, hint)));
+                } else {
+                    readSegment(segmentId, segment, segmentId == fromSegment ? fromOffset : RecordCodec.FILE_HEADER_SIZE,
+                            decoders, pending);
+                }
+            }
+            pending.put(CompletableFuture.completedFuture(END));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            CompletableFuture<Batch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(t);
+            try {
+                pending.put(failed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 从 start 开始大块顺序读取一个段，每块只包含完整的帧，跨块的记录留到下一块开头；最后一块标记为段结束
+     */
+    private void readSegment(int segmentId, DataFile segment, long start, ExecutorService decoders,
+                             BlockingQueue<Future<Batch>> pending) throws IOException, InterruptedException {
+        long fileEnd = segment.tail();
+        try (FileChannel channel = FileChannel.open(Paths.get(segment.getFilePath()), StandardOpenOption.READ)) {
+            byte[] buf = new byte[CHUNK_BYTES];
+            int filled = 0;
+            long bufStart = start;
+            while (true) {
+                while (filled < buf.length && bufStart + filled < fileEnd) {
+                    int want = (int) Math.min(buf.length - filled, fileEnd - bufStart - filled);
+                    int n = channel.read(ByteBuffer.wrap(buf, filled, want), bufStart + filled);
+                    if (n < 0) {
+                        fileEnd = bufStart + filled;
+                        break;
+                    }
+                    filled += n;
+                }
+                ByteBuffer view = ByteBuffer.wrap(buf, 0, filled);
+                int p = 0;
+                int frames = 0;
+                int need = 0;
+                boolean corrupt = false;
+                while (filled - p >= DataFile.LEN_SIZE) {
+                    int len = view.getInt(p);
+                    if (len <= 0 || len > fileEnd - bufStart - p - DataFile.LEN_SIZE) {
+                        corrupt = true;
+                        break;
+                    }
+                    if (filled - p - DataFile.LEN_SIZE < len) {
+                        need = DataFile.LEN_SIZE + len;
+                        break;
+                    }
+                    p += DataFile.LEN_SIZE + len;
+                    frames++;
+                }
+                boolean last = corrupt || bufStart + filled >= fileEnd && need == 0;
+                byte[] chunk = buf;
+                long chunkStart = bufStart;
+                int chunkFrames = frames;
+                int chunkEnd = p;
+                pending.put(decoders.submit(() -> decodeChunk(segmentId, chunk, chunkStart, chunkEnd, chunkFrames, last)));
+                if (last) {
+                    return;
+                }
+                // 未读完的记录搬到新块开头，单条超过块大小的记录按需放大新块
+                int leftover = filled - p;
+                buf = new byte[Math.max(CHUNK_BYTES, need)];
+                System.arraycopy(chunk, p, buf, 0, leftover);
+                bufStart += p;
+                filled = leftover;
+            }
+        }
+    }
+
+    private Batch decodeChunk(int segmentId, byte[] chunk, long chunkStart, int chunkEnd, int frames, boolean last) {
+        Batch batch = new Batch(segmentId, false);
+        batch.allocate(frames);
+        batch.last = last;
+        int p = 0;
+        while (p < chunkEnd) {
+            int len = ByteBuffer.wrap(chunk, p, DataFile.LEN_SIZE).getInt();
+            ByteBuffer record = ByteBuffer.wrap(chunk, p + DataFile.LEN_SIZE, len);
+            if (!RecordCodec.isValid(record)) {
+                batch.corrupt = true;
+                break;
+            }
+            long recordStart = chunkStart + p + DataFile.LEN_SIZE;
+            if (RecordCodec.readType(record) == RecordCodec.TYPE_BATCH) {
+                int base = p + DataFile.LEN_SIZE;
+                RecordCodec.forEachInBatch(record, (offset, innerLen) -> {
+                    ByteBuffer inner = ByteBuffer.wrap(chunk, base + offset, innerLen);
+                    batch.add(RecordCodec.readKey(inner), new CommandPos(segmentId, recordStart + offset, innerLen),
+                            RecordCodec.readType(inner) == RecordCodec.TYPE_RM, RecordCodec.readExpireAt(inner));
+                });
+            } else {
+                batch.add(RecordCodec.readKey(record), new CommandPos(segmentId, recordStart, len),
+                        RecordCodec.readType(record) == RecordCodec.TYPE_RM, RecordCodec.readExpireAt(record));
+            }
+            p += DataFile.LEN_SIZE + len;
+        }
+        batch.end = chunkStart + p;
+        return batch;
+    }
+
+    private Batch decodeHint(int segmentId, byte[] hint) {
+        Batch batch = new Batch(segmentId, true);
+        batch.allocate(1024);
+        HintFile.parse(hint, (key, type, pos, len, expireAt) ->
+                batch.add(key, new CommandPos(segmentId, pos, len), type == RecordCodec.TYPE_RM, expireAt));
+        return batch;
+    }
+
+    /**
+     * 一个块解码出的记录，按日志顺序排列
+     */
+    private static class Batch {
+        private final int segmentId;
+        private final boolean hinted;
+        private String[] keys;
+        private CommandPos[] positions;
+        private boolean[] tombstones;
+        private long[] expireAts;
+        private int count;
+        /**
+         * 块内最后一条有效记录之后的偏移
+         */
+        private long end;
+        /**
+         * 块内遇到校验不过的记录，段的其余部分作废
+         */
+        private boolean corrupt;
+        /**
+         * 段的最后一块
+         */
+        private boolean last;
+
+        Batch(int segmentId, boolean hinted) {
+            this.segmentId = segmentId;
+            this.hinted = hinted;
+        }
+
+        void allocate(int capacity) {
+            keys = new String[capacity];
+            positions = new CommandPos[capacity];
+            tombstones = new boolean[capacity];
+            expireAts = new long[capacity];
+        }
+
+        void add(String key, CommandPos pos, boolean tombstone, long expireAt) {
+            if (count == keys.length) {
+                int capacity = Math.max(16, count * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+                tombstones = Arrays.copyOf(tombstones, capacity);
+                expireAts = Arrays.copyOf(expireAts, capacity);
+            }
+            keys[count] = key;
+            positions[count] = pos;
+            tombstones[count] = tombstone;
+            expireAts[count] = expireAt;
+            count++;
+        }
+    }
+
+    public interface RecordApplier {
+        /**
+         * @param expireAt 记录的过期时刻，不会过期时为 0
+         */
+        void apply(String key, CommandPos pos, boolean tombstone, long expireAt);
+    }
+}
@@ -0,0 +1,12 @@
+package service;
+
+public enum IndexTypeEnum {
+    /*
+     * ConcurrentHashMap<String, CommandPos>，每个 key 都是堆上对象
+     * */
+    HASH_MAP,
+    /*
+     * 开放寻址的 long[] 槽位，key 以 UTF-8 存放在堆外
+     * */
+    OFF_HEAP
+}
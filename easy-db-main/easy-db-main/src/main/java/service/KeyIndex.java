@@ -0,0 +1,43 @@
+package service;
+
+import model.command.CommandPos;
+
+import java.util.function.BiConsumer;
+
+/**
+ * key 到记录位置的索引。读操作必须可以与写操作并发、且不被写阻塞；
+ * 写操作只来自写线程和合并线程，由 NormalStore 的索引锁串行化
+ */
+public interface KeyIndex {
+
+    CommandPos get(String key);
+
+    /**
+     * @return 原来的位置，没有时返回 null
+     */
+    CommandPos put(String key, CommandPos pos);
+
+    /**
+     * @return 原来的位置，没有时返回 null
+     */
+    CommandPos remove(String key);
+
+    /**
+     * 当前位置等于 expect 时替换为 update
+     */
+    boolean replace(String key, CommandPos expect, CommandPos update);
+
+    boolean containsKey(String key);
+
+    int size();
+
+    /**
+     * 遍历所有 key，不长时间阻塞并发的写入。遍历开始前就存在、遍历期间没有被修改的 key 一定会被遍历到，
+     * 期间被修改的 key 可能给出旧位置也可能给出新位置
+     */
+    void forEach(BiConsumer<String, CommandPos> action);
+
+    static KeyIndex create(IndexTypeEnum type) {
+        return type == IndexTypeEnum.OFF_HEAP ? new OffHeapKeyIndex() : new HashKeyIndex();
+    }
+}
@@ -0,0 +1,107 @@
+package service;
+
+import lombok.Getter;
+import utils.Crc32c;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * LSMTree 的清单文件 MANIFEST：记录每一层有哪些有序表（按序号），每次落盘或合并后整体重写。
+ * 不在清单中的有序表是没完成的合并或落盘留下的，启动时删除。
+ * <p>
+ * 格式：MAGIC(4) 版本(4) 下一个序号(8) 层数(4)，每层为 表数(4) 和各表序号(8)，文件末尾是前面所有字节的 CRC32C(4)
+ */
+public final class LSMManifest {
+
+    public static final String FILE_NAME = "MANIFEST";
+
+    private static final int MAGIC = 0x455A4C4D;
+    private static final int VERSION = 1;
+    private static final int CRC_SIZE = 4;
+
+    @Getter
+    private final long nextSequence;
+    /**
+     * 每层的有序表序号，第 0 层从新到旧，其余各层按 key 升序
+     */
+    @Getter
+    private final List<List<Long>> levels;
+
+    private LSMManifest(long nextSequence, List<List<Long>> levels) {
+        this.nextSequence = nextSequence;
+        this.levels = levels;
+    }
+
+    public static Path path(String dataDir) {
+        return Paths.get(dataDir, FILE_NAME);
+    }
+
+    /**
+     * 先写临时文件、刷盘后原子替换
+     */
+    public static void write(Path target, long nextSequence, List<List<Long>> levels) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        Checksum crc = Crc32c.create();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nextSequence);
+            out.writeInt(levels.size());
+            for (List<Long> level : levels) {
+                out.writeInt(level.size());
+                for (long sequence : level) {
+                    out.writeLong(sequence);
+                }
+            }
+            out.flush();
+            // 校验值本身不参与校验，直接写到底层文件
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return 清单；不存在时返回 null
+     */
+    public static LSMManifest read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length - CRC_SIZE;
+        Checksum crc = Crc32c.create();
+        if (end >= 20) {
+            crc.update(bytes, 0, end);
+        }
+        if (end < 20 || (int) crc.getValue() != buffer.getInt(end) || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("manifest " + path + " is corrupt");
+        }
+        long nextSequence = buffer.getLong();
+        int levelCount = buffer.getInt();
+        List<List<Long>> levels = new ArrayList<>(levelCount);
+        for (int i = 0; i < levelCount; i++) {
+            int count = buffer.getInt();
+            List<Long> level = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                level.add(buffer.getLong());
+            }
+            levels.add(level);
+        }
+        return new LSMManifest(nextSequence, levels);
+    }
+}
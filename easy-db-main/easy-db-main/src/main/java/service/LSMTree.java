@@ -1,60 +1,794 @@
 package service;
 
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+public class LSMTree implements Closeable {
+    private final Logger LOGGER = LoggerFactory.getLogger(LSMTree.class);
+    private final String logFormat = "[LSMTree][{}]: {}";
 
-public class LSMTree {
-    private static final int MEMTABLE_SIZE_THRESHOLD = 1000;
-    private TreeMap<String, String> memTable = new TreeMap<>();
-    private List<File> sstables = new ArrayList<>();
+    private static final String SSTABLE_PREFIX = "sstable_";
+    /**
+     * 查找时遇到已经释放的表
+     */
+    private static final Map.Entry<String, String> RELEASED = new AbstractMap.SimpleImmutableEntry<>("", null);
+    /**
+     * 旧版本按行写 key=value 的文本有序表，文件名中是落盘时的毫秒时间戳
+     */
+    private static final String LEGACY_SUFFIX = ".dat";
+    /**
+     * 接收写入的内存表
+     */
+    private volatile MemTable memTable = new MemTable();
+    /**
+     * 已写满、正在由后台线程落盘的内存表，落盘完成前仍可读；没有时为 null
+     */
+    private volatile MemTable immutable;
+    /**
+     * 写入持有读锁，可以并发写跳表；切换内存表持有写锁，保证切换后不会再有写入落到被冻结的内存表中
+     */
+    private final ReadWriteLock memTableLock = new ReentrantReadWriteLock();
+    /**
+     * 冻结的内存表落盘完成或落盘失败时通知
+     */
+    private final Condition immutableFlushed = memTableLock.writeLock().newCondition();
+    /**
+     * 后台落盘线程
+     */
+    private final ExecutorService flusher;
+    /**
+     * 后台落盘失败的原因，之后的写入都会失败
+     */
+    private volatile Throwable backgroundError;
+    /**
+     * 各层有序表：第 0 层从新到旧，key 范围可能重叠；其余层按 key 升序，层内互不重叠。
+     * 发布后不再修改，读者不加锁直接读取；落盘和合并在持有本对象的锁时复制、修改后整体替换
+     */
+    private volatile List<List<SSTable>> levels;
     private String dataDir;
+    private final LSMTreeConfig config;
+    private long nextSequence;
+
+    private final CompactionStrategy compaction;
+    /**
+     * 后台合并线程，未开启合并时为 null
+     */
+    private final ExecutorService compactor;
+    private volatile boolean closed;
+
+    /**
+     * 过滤器判定不存在、省掉一次读块的次数
+     */
+    private final AtomicLong filterUseful = new AtomicLong();
+    /**
+     * 过滤器判定可能存在、读块后却没有找到的次数
+     */
+    private final AtomicLong filterFalsePositive = new AtomicLong();
+    /**
+     * 过滤器判定可能存在、读块后确实找到的次数
+     */
+    private final AtomicLong filterTruePositive = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+    /**
+     * 内存表写满时上一个内存表还没落盘完、写入被迫等待的次数
+     */
+    private final AtomicLong writeStalls = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactionBytesRead = new AtomicLong();
+    private final AtomicLong compactionBytesWritten = new AtomicLong();
 
-    public LSMTree(String dataDir) {
+    public LSMTree(String dataDir) throws IOException {
+        this(dataDir, new LSMTreeConfig());
+    }
+
+    public LSMTree(String dataDir, LSMTreeConfig config) throws IOException {
         this.dataDir = dataDir;
+        this.config = config;
+        this.compaction = CompactionStrategy.create(config);
+        File dir = new File(dataDir);
+        dir.mkdirs();
+        List<List<SSTable>> levels = new ArrayList<>();
+        for (int i = 0; i < config.getMaxLevels(); i++) {
+            levels.add(new ArrayList<>());
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SSTABLE_PREFIX) && name.endsWith(SSTable.SUFFIX));
+        files = files == null ? new File[0] : files;
+        File[] legacy = dir.listFiles((d, name) -> name.matches(SSTABLE_PREFIX + "\\d+" + Pattern.quote(LEGACY_SUFFIX)));
+        legacy = legacy == null ? new File[0] : legacy;
+        LSMManifest manifest = LSMManifest.read(LSMManifest.path(dataDir));
+        if (manifest == null) {
+            // 没有清单的旧目录：全部有序表按序号从新到旧放进第 0 层，旧版本的文本格式表转换后放在更前面
+            Arrays.sort(files, Comparator.comparingLong(LSMTree::sequenceOf).reversed());
+            for (File file : files) {
+                levels.get(0).add(SSTable.open(file));
+                nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+            }
+            convertLegacyTables(legacy, levels.get(0));
+        } else {
+            nextSequence = manifest.getNextSequence();
+            Set<Long> listed = new HashSet<>();
+            for (int level = 0; level < manifest.getLevels().size(); level++) {
+                while (levels.size() <= level) {
+                    levels.add(new ArrayList<>());
+                }
+                for (long sequence : manifest.getLevels().get(level)) {
+                    levels.get(level).add(SSTable.open(sstableFile(sequence)));
+                    listed.add(sequence);
+                }
+            }
+            // 不在清单中的是没完成的合并或落盘留下的
+            for (File file : files) {
+                if (!listed.contains(sequenceOf(file))) {
+                    LoggerUtil.info(LOGGER, logFormat, "LSMTree", "deleting unlisted sstable " + file.getName());
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+        writeManifest(levels);
+        this.levels = freeze(levels);
+        // 有清单时旧表已经转换过，只是上次没来得及删除
+        for (File file : legacy) {
+            Files.deleteIfExists(file.toPath());
+        }
+        this.flusher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.isCompactionEnabled()) {
+            this.compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "lsm-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduleCompaction();
+        } else {
+            this.compactor = null;
+        }
     }
 
-    public synchronized void put(String key, String value) throws IOException {
-        memTable.put(key, value);
-        if (memTable.size() >= MEMTABLE_SIZE_THRESHOLD) {
-            flushMemTable();
+    /**
+     * 把旧版本的文本有序表逐个转换成二进制有序表，从旧到新放到第 0 层最前面。
+     * 旧文件在写完清单后才删除，转换中途退出时下次打开重新转换，重复的表内容相同，不影响结果
+     */
+    private void convertLegacyTables(File[] legacy, List<SSTable> level0) throws IOException {
+        Arrays.sort(legacy, Comparator.comparingLong(LSMTree::legacyTimestampOf));
+        for (File file : legacy) {
+            TreeMap<String, String> entries = new TreeMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf('=');
+                    if (separator < 0) {
+                        throw new IOException("malformed line in legacy sstable " + file.getName() + ": " + line);
+                    }
+                    entries.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+            SSTable sstable = SSTable.write(sstableFile(nextSequence++), entries.entrySet().iterator(),
+                    config.getBlockBytes(), config.getBloomBitsPerKey());
+            level0.add(0, sstable);
+            LoggerUtil.info(LOGGER, logFormat, "convertLegacyTables",
+                    "converted " + entries.size() + " entries in " + file.getName() + " to " + sstable.getFile().getName());
         }
     }
 
-    public synchronized String get(String key) throws IOException {
-        if (memTable.containsKey(key)) {
-            return memTable.get(key);
+    private static long legacyTimestampOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SSTABLE_PREFIX.length(), name.length() - LEGACY_SUFFIX.length()));
+    }
+
+    /**
+     * 写入内存表，写满时冻结并换上新的内存表，由后台线程落盘，写入不等待落盘；
+     * 只有上一个冻结的内存表还没落盘完时才等待
+     *
+     * @param value 为 null 时写入删除标记
+     */
+    public void put(String key, String value) throws IOException {
+        checkBackgroundError();
+        MemTable current;
+        memTableLock.readLock().lock();
+        try {
+            current = memTable;
+            current.put(key, value);
+        } finally {
+            memTableLock.readLock().unlock();
+        }
+        if (current.sizeBytes() >= config.getMemTableBytes()) {
+            switchMemTable(current);
         }
-        for (File sstable : sstables) {
-            String value = searchSSTable(sstable, key);
-            if (value != null) {
-                return value;
+    }
+
+    private void switchMemTable(MemTable full) throws IOException {
+        memTableLock.writeLock().lock();
+        try {
+            if (memTable != full) {
+                // 其他写入已经切换过了
+                return;
+            }
+            if (immutable != null) {
+                writeStalls.incrementAndGet();
+                while (immutable != null) {
+                    checkBackgroundError();
+                    immutableFlushed.await();
+                }
+                if (memTable != full) {
+                    return;
+                }
             }
+            // 先设置 immutable 再换 memTable，读者先读 memTable 后读 immutable，不会漏掉正在切换的内存表
+            immutable = full;
+            memTable = new MemTable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for memtable flush", e);
+        } finally {
+            memTableLock.writeLock().unlock();
         }
-        return null;
+        flusher.execute(this::flushImmutable);
     }
 
-    private void flushMemTable() throws IOException {
-        File sstable = new File(dataDir, "sstable_" + System.currentTimeMillis() + ".dat");
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(sstable))) {
-            for (Map.Entry<String, String> entry : memTable.entrySet()) {
-                writer.write(entry.getKey() + "=" + entry.getValue());
-                writer.newLine();
+    private void flushImmutable() {
+        try {
+            writeMemTable(immutable);
+            memTableLock.writeLock().lock();
+            try {
+                immutable = null;
+                immutableFlushed.signalAll();
+            } finally {
+                memTableLock.writeLock().unlock();
+            }
+            scheduleCompaction();
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "flush", "memtable flush failed");
+            backgroundError = t;
+            memTableLock.writeLock().lock();
+            try {
+                immutableFlushed.signalAll();
+            } finally {
+                memTableLock.writeLock().unlock();
             }
         }
-        sstables.add(sstable);
-        memTable.clear();
     }
 
-    private String searchSSTable(File sstable, String key) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(sstable))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("=");
-                if (parts[0].equals(key)) {
-                    return parts[1];
+    private void checkBackgroundError() throws IOException {
+        Throwable error = backgroundError;
+        if (error != null) {
+            throw new IOException("background memtable flush failed", error);
+        }
+    }
+
+    /**
+     * value 为 null 的记录是删除标记，命中时不再查更旧的有序表。
+     * 先查内存表和冻结的内存表，不加锁；
+     * 第 0 层从新到旧逐个查，其余每层最多只有一张表的 key 范围包含该 key；
+     * 每张表先查内存中的布隆过滤器，判定不存在的表不读文件
+     */
+    public String get(String key) throws IOException {
+        Map.Entry<String, String> entry = memTable.get(key);
+        if (entry == null) {
+            MemTable frozen = immutable;
+            entry = frozen == null ? null : frozen.get(key);
+        }
+        if (entry != null) {
+            return entry.getValue();
+        }
+        // 冻结的内存表先加入第 0 层再清空 immutable，这里一定能看到它落盘后的有序表
+        return getFromSSTables(key);
+    }
+
+    /**
+     * 不加锁，只读当前的各层快照。快照中的表被合并替换、引用已释放时换用新的快照重查，
+     * 被替换的表的内容都已在新快照中
+     */
+    private String getFromSSTables(String key) throws IOException {
+        retry:
+        while (true) {
+            List<List<SSTable>> current = levels;
+            for (int level = 0; level < current.size(); level++) {
+                List<SSTable> candidates = level == 0 ? current.get(0) : single(findTable(current.get(level), key));
+                for (SSTable sstable : candidates) {
+                    Map.Entry<String, String> entry = probe(sstable, key);
+                    if (entry == RELEASED) {
+                        if (levels == current) {
+                            throw new IOException("lsm tree is closed");
+                        }
+                        continue retry;
+                    }
+                    if (entry != null) {
+                        return entry.getValue();
+                    }
                 }
             }
+            return null;
+        }
+    }
+
+    /**
+     * @return 表已释放时返回 {@link #RELEASED}
+     */
+    private Map.Entry<String, String> probe(SSTable sstable, String key) throws IOException {
+        if (!sstable.mightContain(key)) {
+            filterUseful.incrementAndGet();
+            return null;
+        }
+        if (!sstable.acquire()) {
+            return RELEASED;
+        }
+        Map.Entry<String, String> entry;
+        try {
+            entry = sstable.get(key);
+        } finally {
+            sstable.release();
+        }
+        if (entry != null) {
+            filterTruePositive.incrementAndGet();
+        } else {
+            filterFalsePositive.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private static List<SSTable> single(SSTable sstable) {
+        return sstable == null ? Collections.emptyList() : Collections.singletonList(sstable);
+    }
+
+    /**
+     * 在按 key 升序、互不重叠的一层中找 key 范围包含 key 的表
+     */
+    private static SSTable findTable(List<SSTable> level, String key) {
+        int lo = 0;
+        int hi = level.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            SSTable table = level.get(mid);
+            if (table.getLastKey().compareTo(key) < 0) {
+                lo = mid + 1;
+            } else if (table.getFirstKey().compareTo(key) > 0) {
+                hi = mid - 1;
+            } else {
+                return table;
+            }
         }
         return null;
     }
+
+    public LsmStats getStats() {
+        List<List<SSTable>> levels = this.levels;
+        long filterBytes = 0;
+        int sstables = 0;
+        int[] levelFiles = new int[levels.size()];
+        long[] levelBytes = new long[levels.size()];
+        for (int level = 0; level < levels.size(); level++) {
+            for (SSTable sstable : levels.get(level)) {
+                filterBytes += sstable.getFilterBytes();
+                levelBytes[level] += sstable.sizeBytes();
+            }
+            levelFiles[level] = levels.get(level).size();
+            sstables += levelFiles[level];
+        }
+        MemTable frozen = immutable;
+        return new LsmStats(sstables, levelFiles, levelBytes, filterBytes, filterUseful.get(), filterFalsePositive.get(),
+                filterTruePositive.get(), memTable.sizeBytes(), frozen == null ? 0 : frozen.sizeBytes(), flushes.get(),
+                writeStalls.get(), compactions.get(), compactionBytesRead.get(), compactionBytesWritten.get());
+    }
+
+    /**
+     * 把内存表写成有序表放到第 0 层最前面，写文件时不持有锁
+     */
+    private void writeMemTable(MemTable table) throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = nextSequence++;
+        }
+        SSTable sstable = SSTable.write(sstableFile(sequence), table.iterator(),
+                config.getBlockBytes(), config.getBloomBitsPerKey());
+        synchronized (this) {
+            List<List<SSTable>> next = copyLevels();
+            next.get(0).add(0, sstable);
+            install(next);
+        }
+        flushes.incrementAndGet();
+    }
+
+    /**
+     * 立即在合并线程上做完所有需要的合并并等待结束；未开启后台合并时在调用线程上执行
+     */
+    public void compactNow() throws IOException {
+        if (compactor == null) {
+            compactAll();
+            return;
+        }
+        try {
+            compactor.submit(() -> {
+                compactAll();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("compaction interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("compaction failed", e.getCause());
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactor != null && !closed) {
+            compactor.execute(this::compactQuietly);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compactAll();
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "compact", "compaction failed");
+        }
+    }
+
+    private void compactAll() throws IOException {
+        while (!closed) {
+            CompactionTask task = compaction.pick(levels);
+            if (task == null) {
+                return;
+            }
+            runCompaction(task);
+        }
+    }
+
+    /**
+     * 执行一次合并：只在替换时持有锁，归并和写文件都在锁外进行，不阻塞读写。
+     * 只有一张输入表时直接移到下一层，不重写文件。
+     * 输出到第 0 层时放在输入原来的位置，保持与其他第 0 层表的新旧顺序
+     */
+    private void runCompaction(CompactionTask task) throws IOException {
+        long start = System.currentTimeMillis();
+        List<SSTable> outputs = new ArrayList<>();
+        if (task.getInputs().size() == 1 && task.getOutputLevel() != task.getLevel()) {
+            outputs.add(task.getInputs().get(0));
+        } else {
+            // 比输入旧的表：输出在第 0 层时包括第 0 层中排在输入之后的表，每张单独作为一组
+            // 只有合并线程会移除表，合并期间快照中更旧的表都不会被释放
+            List<List<SSTable>> current = levels;
+            List<List<SSTable>> deeper = new ArrayList<>();
+            if (task.getOutputLevel() == 0) {
+                List<SSTable> l0 = current.get(0);
+                int last = l0.indexOf(task.getInputs().get(task.getInputs().size() - 1));
+                for (int i = last + 1; i < l0.size(); i++) {
+                    deeper.add(Collections.singletonList(l0.get(i)));
+                }
+            }
+            for (int level = task.getOutputLevel() + 1; level < current.size(); level++) {
+                deeper.add(current.get(level));
+            }
+            Iterator<Map.Entry<String, String>> merged = new MergingIterator(task.getInputs(), deeper);
+            try {
+                while (merged.hasNext()) {
+                    long sequence;
+                    synchronized (this) {
+                        sequence = nextSequence++;
+                    }
+                    SSTable output = SSTable.write(sstableFile(sequence), new SizeLimitedIterator(merged, task.getMaxOutputFileBytes()),
+                            config.getBlockBytes(), config.getBloomBitsPerKey());
+                    outputs.add(output);
+                }
+            } catch (Throwable t) {
+                for (SSTable output : outputs) {
+                    output.close();
+                    Files.deleteIfExists(output.getFile().toPath());
+                }
+                throw t;
+            }
+            for (SSTable input : task.getInputs()) {
+                compactionBytesRead.addAndGet(input.sizeBytes());
+            }
+            for (SSTable output : outputs) {
+                compactionBytesWritten.addAndGet(output.sizeBytes());
+            }
+        }
+        synchronized (this) {
+            List<List<SSTable>> next = copyLevels();
+            // 合并期间落盘的新表只会加在第 0 层最前面，输入仍是相邻的一段
+            int position = next.get(0).indexOf(task.getInputs().get(0));
+            for (List<SSTable> level : next) {
+                level.removeIf(sstable -> task.getInputs().contains(sstable));
+            }
+            List<SSTable> target = next.get(task.getOutputLevel());
+            if (task.getOutputLevel() == 0) {
+                target.addAll(position, outputs);
+            } else {
+                target.addAll(outputs);
+                target.sort(Comparator.comparing(SSTable::getFirstKey));
+            }
+            install(next);
+        }
+        // 新快照发布后不会再有读者拿到输入表，正在读的读者释放最后一个引用时关闭并删除文件
+        for (SSTable input : task.getInputs()) {
+            if (!outputs.contains(input)) {
+                input.markObsolete();
+                input.release();
+            }
+        }
+        compactions.incrementAndGet();
+        LoggerUtil.debug(LOGGER, logFormat, "compact", task + " -> " + outputs.size() + " tables in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 当前各层的可修改副本，修改后用 {@link #install} 替换，只在持有本对象的锁时调用
+     */
+    private List<List<SSTable>> copyLevels() {
+        List<List<SSTable>> copy = new ArrayList<>(levels.size());
+        for (List<SSTable> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+
+    /**
+     * 先写清单再发布新的各层快照，清单写入失败时内存中的各层不变
+     */
+    private void install(List<List<SSTable>> next) throws IOException {
+        writeManifest(next);
+        levels = freeze(next);
+    }
+
+    private static List<List<SSTable>> freeze(List<List<SSTable>> levels) {
+        List<List<SSTable>> frozen = new ArrayList<>(levels.size());
+        for (List<SSTable> level : levels) {
+            frozen.add(Collections.unmodifiableList(new ArrayList<>(level)));
+        }
+        return Collections.unmodifiableList(frozen);
+    }
+
+    private void writeManifest(List<List<SSTable>> levels) throws IOException {
+        List<List<Long>> sequences = new ArrayList<>();
+        for (List<SSTable> level : levels) {
+            List<Long> list = new ArrayList<>(level.size());
+            for (SSTable sstable : level) {
+                list.add(sequenceOf(sstable.getFile()));
+            }
+            sequences.add(list);
+        }
+        LSMManifest.write(LSMManifest.path(dataDir), nextSequence, sequences);
+    }
+
+    /**
+     * 等后台落盘结束后停止后台合并，把剩下的内存表落盘并关闭所有有序表
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        awaitShutdown(flusher);
+        if (compactor != null) {
+            awaitShutdown(compactor);
+        }
+        synchronized (this) {
+            // 落盘失败时冻结的内存表还在，先于更新的内存表落盘
+            if (immutable != null) {
+                writeMemTable(immutable);
+                immutable = null;
+            }
+            if (!memTable.isEmpty()) {
+                writeMemTable(memTable);
+                memTable = new MemTable();
+            }
+            // 之后的查找拿不到引用，报告已关闭；正在读的读者读完后关闭文件
+            for (List<SSTable> level : levels) {
+                for (SSTable sstable : level) {
+                    sstable.release();
+                }
+            }
+        }
+    }
+
+    private static void awaitShutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File sstableFile(long sequence) {
+        return new File(dataDir, String.format("%s%010d%s", SSTABLE_PREFIX, sequence, SSTable.SUFFIX));
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SSTABLE_PREFIX.length(), name.length() - SSTable.SUFFIX.length()));
+    }
+
+    /**
+     * 多路归并输入表：同一个 key 只留最新的一条；更旧的表中都没有该 key 时删除标记也一并丢弃
+     */
+    private static class MergingIterator implements Iterator<Map.Entry<String, String>> {
+        private final PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = a.current.getKey().compareTo(b.current.getKey());
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        private final List<List<SSTable>> deeper;
+        private Map.Entry<String, String> next;
+
+        MergingIterator(List<SSTable> inputs, List<List<SSTable>> deeper) {
+            this.deeper = deeper;
+            for (int i = 0; i < inputs.size(); i++) {
+                Source source = new Source(inputs.get(i).iterator(), i);
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !queue.isEmpty()) {
+                Source top = queue.poll();
+                Map.Entry<String, String> entry = top.current;
+                if (top.advance()) {
+                    queue.add(top);
+                }
+                // 更旧的输入中同一个 key 的记录被覆盖
+                while (!queue.isEmpty() && queue.peek().current.getKey().equals(entry.getKey())) {
+                    Source shadowed = queue.poll();
+                    if (shadowed.advance()) {
+                        queue.add(shadowed);
+                    }
+                }
+                if (entry.getValue() != null || existsDeeper(entry.getKey())) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = next;
+            next = null;
+            return entry;
+        }
+
+        private boolean existsDeeper(String key) {
+            for (List<SSTable> level : deeper) {
+                SSTable table = findTable(level, key);
+                if (table != null && table.mightContain(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Source {
+        private final Iterator<Map.Entry<String, String>> iterator;
+        private final int rank;
+        private Map.Entry<String, String> current;
+
+        Source(Iterator<Map.Entry<String, String>> iterator, int rank) {
+            this.iterator = iterator;
+            this.rank = rank;
+        }
+
+        boolean advance() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current != null;
+        }
+    }
+
+    /**
+     * 从底层迭代器取记录，累计的 key 和 value 字节数达到上限后结束，用来切分合并输出
+     */
+    private static class SizeLimitedIterator implements Iterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, String>> source;
+        private final long limit;
+        private long bytes;
+
+        SizeLimitedIterator(Iterator<Map.Entry<String, String>> source, long limit) {
+            this.source = source;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return bytes < limit && source.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            Map.Entry<String, String> entry = source.next();
+            bytes += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+            return entry;
+        }
+    }
+
+    /**
+     * LSMTree 统计快照
+     */
+    @Getter
+    public static class LsmStats {
+        private final int sstables;
+        private final int[] levelFiles;
+        private final long[] levelBytes;
+        private final long filterBytes;
+        private final long filterUseful;
+        private final long filterFalsePositive;
+        private final long filterTruePositive;
+        private final long memTableBytes;
+        private final long immutableMemTableBytes;
+        private final long flushes;
+        private final long writeStalls;
+        private final long compactions;
+        private final long compactionBytesRead;
+        private final long compactionBytesWritten;
+
+        public LsmStats(int sstables, int[] levelFiles, long[] levelBytes, long filterBytes, long filterUseful,
+                        long filterFalsePositive, long filterTruePositive, long memTableBytes, long immutableMemTableBytes,
+                        long flushes, long writeStalls, long compactions, long compactionBytesRead, long compactionBytesWritten) {
+            this.sstables = sstables;
+            this.levelFiles = levelFiles;
+            this.levelBytes = levelBytes;
+            this.filterBytes = filterBytes;
+            this.filterUseful = filterUseful;
+            this.filterFalsePositive = filterFalsePositive;
+            this.filterTruePositive = filterTruePositive;
+            this.memTableBytes = memTableBytes;
+            this.immutableMemTableBytes = immutableMemTableBytes;
+            this.flushes = flushes;
+            this.writeStalls = writeStalls;
+            this.compactions = compactions;
+            this.compactionBytesRead = compactionBytesRead;
+            this.compactionBytesWritten = compactionBytesWritten;
+        }
+
+        /**
+         * 查询表中不存在的 key 时，过滤器没能排除的比例
+         */
+        public double getFalsePositiveRate() {
+            long negatives = filterUseful + filterFalsePositive;
+            return negatives == 0 ? 0 : (double) filterFalsePositive / negatives;
+        }
+
+        @Override
+        public String toString() {
+            return "LsmStats{" +
+                    "sstables=" + sstables +
+                    ", levelFiles=" + Arrays.toString(levelFiles) +
+                    ", levelBytes=" + Arrays.toString(levelBytes) +
+                    ", filterBytes=" + filterBytes +
+                    ", filterUseful=" + filterUseful +
+                    ", filterFalsePositive=" + filterFalsePositive +
+                    ", filterTruePositive=" + filterTruePositive +
+                    ", falsePositiveRate=" + String.format("%.4f", getFalsePositiveRate()) +
+                    ", memTableBytes=" + memTableBytes +
+                    ", immutableMemTableBytes=" + immutableMemTableBytes +
+                    ", flushes=" + flushes +
+                    ", writeStalls=" + writeStalls +
+                    ", compactions=" + compactions +
+                    ", compactionBytesRead=" + compactionBytesRead +
+                    ", compactionBytesWritten=" + compactionBytesWritten +
+                    '}';
+        }
+    }
 }
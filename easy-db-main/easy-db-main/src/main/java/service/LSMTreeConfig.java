@@ -0,0 +1,82 @@
+package service;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * LSMTree 的可调参数，默认值即为只传数据目录构造时的行为
+ */
+@Setter
+@Getter
+public class LSMTreeConfig {
+    /**
+     * 有序表数据块的目标大小
+     */
+    private int blockBytes = SSTable.DEFAULT_BLOCK_BYTES;
+
+    /**
+     * 内存表估算的内存占用达到该值时冻结，交给后台线程落盘
+     */
+    private long memTableBytes = 4L * 1024 * 1024;
+
+    /**
+     * 布隆过滤器每个 key 占用的位数，10 位时误判率约 1%；0 表示不建过滤器
+     */
+    private int bloomBitsPerKey = 10;
+
+    /**
+     * 是否在后台合并有序表
+     */
+    private boolean compactionEnabled = true;
+
+    /**
+     * 合并策略
+     */
+    private CompactionStrategyTypeEnum compactionStrategy = CompactionStrategyTypeEnum.LEVELED;
+
+    /**
+     * 第 0 层的表数达到该值时合并到第 1 层
+     */
+    private int l0CompactionTrigger = 4;
+
+    /**
+     * 第 1 层的目标大小
+     */
+    private long levelBaseBytes = 10L * 1024 * 1024;
+
+    /**
+     * 每一层的目标大小是上一层的倍数
+     */
+    private int levelSizeMultiplier = 10;
+
+    /**
+     * 层数，最后一层不再向下合并
+     */
+    private int maxLevels = 7;
+
+    /**
+     * 合并输出的单个表达到该大小后换下一个表
+     */
+    private long targetFileBytes = 2L * 1024 * 1024;
+
+    /**
+     * 按大小分档合并时，一档至少有这么多张表才合并
+     */
+    private int tieredMinMergeWidth = 4;
+
+    /**
+     * 按大小分档合并时，一次最多合并的表数
+     */
+    private int tieredMaxMergeWidth = 32;
+
+    /**
+     * 按大小分档合并时，大小在一档平均大小的 [bucketLow, bucketHigh] 倍之间的表归入该档
+     */
+    private double tieredBucketLow = 0.5;
+    private double tieredBucketHigh = 1.5;
+
+    /**
+     * 按大小分档合并时，小于该大小的表都归入同一档
+     */
+    private long tieredMinTableBytes = 1024 * 1024;
+}
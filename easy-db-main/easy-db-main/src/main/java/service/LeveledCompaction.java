@@ -0,0 +1,111 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分层合并的选取策略：第 0 层是落盘产生的、key 范围可能重叠的表，从第 1 层起每层内各表的 key 范围互不重叠，
+ * 每层的目标大小是上一层的固定倍数。
+ * <p>
+ * 第 0 层按表数、其余层按总大小与目标大小之比打分，选分数最高且不小于 1 的层：
+ * 第 0 层的全部表，或第 n 层按 key 轮转选出的一张表，连同下一层中与其 key 范围重叠的表一起合并到下一层。
+ * 这样每层最多只有一张表可能包含某个 key，读放大约为每层一张表
+ */
+public class LeveledCompaction implements CompactionStrategy {
+
+    private final LSMTreeConfig config;
+    /**
+     * 每层上次合并到的最大 key，下次从它之后的表开始，使整层轮流被合并
+     */
+    private final Map<Integer, String> compactPointers = new HashMap<>();
+
+    public LeveledCompaction(LSMTreeConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public CompactionTask pick(List<List<SSTable>> levels) {
+        int best = -1;
+        double bestScore = 1;
+        for (int level = 0; level < levels.size() - 1; level++) {
+            double score = level == 0
+                    ? (double) levels.get(0).size() / config.getL0CompactionTrigger()
+                    : (double) levelBytes(levels.get(level)) / targetBytes(level);
+            if (score >= bestScore) {
+                best = level;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        List<SSTable> inputs = new ArrayList<>();
+        String lo;
+        String hi;
+        if (best == 0) {
+            lo = null;
+            hi = null;
+            for (SSTable table : levels.get(0)) {
+                if (table.getFirstKey() == null) {
+                    continue;
+                }
+                inputs.add(table);
+                lo = lo == null || table.getFirstKey().compareTo(lo) < 0 ? table.getFirstKey() : lo;
+                hi = hi == null || table.getLastKey().compareTo(hi) > 0 ? table.getLastKey() : hi;
+            }
+            if (inputs.isEmpty()) {
+                return null;
+            }
+        } else {
+            SSTable chosen = null;
+            for (SSTable table : levels.get(best)) {
+                String pointer = compactPointers.get(best);
+                if (pointer == null || table.getFirstKey().compareTo(pointer) > 0) {
+                    chosen = table;
+                    break;
+                }
+            }
+            if (chosen == null) {
+                chosen = levels.get(best).get(0);
+            }
+            compactPointers.put(best, chosen.getLastKey());
+            inputs.add(chosen);
+            lo = chosen.getFirstKey();
+            hi = chosen.getLastKey();
+        }
+        inputs.addAll(overlapping(levels.get(best + 1), lo, hi));
+        return new CompactionTask(best, best + 1, inputs, config.getTargetFileBytes());
+    }
+
+    /**
+     * 第 level 层（从 1 起）的目标大小
+     */
+    public long targetBytes(int level) {
+        long target = config.getLevelBaseBytes();
+        for (int i = 1; i < level; i++) {
+            target *= config.getLevelSizeMultiplier();
+        }
+        return target;
+    }
+
+    static List<SSTable> overlapping(List<SSTable> level, String lo, String hi) {
+        List<SSTable> result = new ArrayList<>();
+        for (SSTable table : level) {
+            if (table.getFirstKey() != null
+                    && table.getLastKey().compareTo(lo) >= 0 && table.getFirstKey().compareTo(hi) <= 0) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    static long levelBytes(List<SSTable> level) {
+        long bytes = 0;
+        for (SSTable table : level) {
+            bytes += table.sizeBytes();
+        }
+        return bytes;
+    }
+}
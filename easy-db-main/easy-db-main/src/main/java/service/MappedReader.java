@@ -0,0 +1,98 @@
+package service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 数据文件已写满部分的内存映射读。
+ * <p>
+ * 文件只追加，尾部之前的字节不会再变，按固定大小分块映射；文件增长到新的整块时增量映射，
+ * 尚未写满的最后一块和超过映射上限的部分返回 null，由调用方走定位读；段封存后最后一块也按实际长度映射
+ */
+public class MappedReader {
+
+    private final FileChannel channel;
+    private final int chunkBytes;
+    private final long maxBytes;
+
+    /**
+     * 已映射的块，只会整体替换，读线程拿到的总是一致的快照
+     */
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    public MappedReader(FileChannel channel, int chunkBytes, long maxBytes) {
+        this.channel = channel;
+        this.chunkBytes = chunkBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param tail 当前文件尾部，之前的字节都已写完
+     * @return 记录字节；不在已映射范围内时返回 null
+     */
+    public byte[] read(long pos, int len, long tail) throws IOException {
+        int chunk = (int) (pos / chunkBytes);
+        int offset = (int) (pos % chunkBytes);
+        if (offset + len > chunkBytes) {
+            // 跨块的记录很少，直接走定位读
+            return null;
+        }
+        MappedByteBuffer[] mapped = chunks;
+        if (chunk >= mapped.length) {
+            mapped = mapUpTo(tail);
+            if (chunk >= mapped.length) {
+                return null;
+            }
+        }
+        if (offset + len > mapped[chunk].limit()) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        ByteBuffer view = mapped[chunk].duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 文件不会再增长，把最后不足一块的部分也映射进来
+     */
+    public synchronized void seal(long tail) throws IOException {
+        long limit = Math.min(tail, maxBytes);
+        MappedByteBuffer[] mapped = mapUpTo(limit);
+        long mappedEnd = (long) mapped.length * chunkBytes;
+        if (limit > mappedEnd) {
+            MappedByteBuffer[] grown = Arrays.copyOf(mapped, mapped.length + 1);
+            grown[mapped.length] = channel.map(FileChannel.MapMode.READ_ONLY, mappedEnd, limit - mappedEnd);
+            chunks = grown;
+        }
+    }
+
+    /**
+     * 文件被截短时丢掉超出新长度的块，之后这部分走定位读
+     */
+    public synchronized void truncate(long size) {
+        int full = (int) (Math.min(size, maxBytes) / chunkBytes);
+        if (full < chunks.length) {
+            chunks = Arrays.copyOf(chunks, full);
+        }
+    }
+
+    private synchronized MappedByteBuffer[] mapUpTo(long tail) throws IOException {
+        long limit = Math.min(tail, maxBytes);
+        int full = (int) (limit / chunkBytes);
+        MappedByteBuffer[] mapped = chunks;
+        if (full <= mapped.length || (mapped.length > 0 && mapped[mapped.length - 1].limit() < chunkBytes)) {
+            return mapped;
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, full);
+        for (int i = mapped.length; i < full; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_ONLY, (long) i * chunkBytes, chunkBytes);
+        }
+        chunks = grown;
+        return grown;
+    }
+}
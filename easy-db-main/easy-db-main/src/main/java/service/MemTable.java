@@ -0,0 +1,82 @@
+package service;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LSMTree 的内存表：按 key 有序的并发跳表，多个线程可以同时写入和读取。
+ * 删除记为删除标记，落盘后在有序表中是 value 为 null 的记录
+ */
+public class MemTable {
+
+    /**
+     * 跳表不能存 null，用它表示删除标记
+     */
+    private static final Object TOMBSTONE = new Object();
+    /**
+     * 每条记录除 key 和 value 之外的大致内存开销：跳表节点、索引节点和两个 String 对象头
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentSkipListMap<String, Object> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param value 为 null 时写入删除标记
+     */
+    public void put(String key, String value) {
+        Object previous = map.put(key, value == null ? TOMBSTONE : value);
+        long delta = previous == null ? ENTRY_OVERHEAD + 2L * key.length() : 0;
+        delta += valueBytes(value == null ? TOMBSTONE : value) - (previous == null ? 0 : valueBytes(previous));
+        bytes.addAndGet(delta);
+    }
+
+    /**
+     * @return 记录，value 为 null 表示删除标记；没有该 key 时返回 null
+     */
+    public Map.Entry<String, String> get(String key) {
+        Object value = map.get(key);
+        return value == null ? null : entry(key, value);
+    }
+
+    /**
+     * 按 key 升序遍历，删除标记的 value 为 null
+     */
+    public Iterator<Map.Entry<String, String>> iterator() {
+        Iterator<Map.Entry<String, Object>> source = map.entrySet().iterator();
+        return new Iterator<Map.Entry<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                Map.Entry<String, Object> next = source.next();
+                return entry(next.getKey(), next.getValue());
+            }
+        };
+    }
+
+    /**
+     * 估算的内存占用
+     */
+    public long sizeBytes() {
+        return bytes.get();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    private static Map.Entry<String, String> entry(String key, Object value) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, value == TOMBSTONE ? null : (String) value);
+    }
+
+    private static long valueBytes(Object value) {
+        return value == TOMBSTONE ? 0 : 2L * ((String) value).length();
+    }
+}
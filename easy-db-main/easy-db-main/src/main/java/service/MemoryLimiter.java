@@ -0,0 +1,297 @@
+package service;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存模式下的内存预算：按 key、记录长度和每个 key 的固定开销估算数据集占用，
+ * 超出预算时随机抽样若干个 key，按策略挑出最该淘汰的一个（近似 LRU / LFU）。
+ * <p>
+ * 访问记录在每个 key 自己的对象上无锁更新，允许并发时丢失少量更新；
+ * 供抽样的 key 数组按 key 的哈希分成多个分片，每个分片单独加锁，没有全局锁
+ */
+public class MemoryLimiter {
+
+    /**
+     * 估算每个 key 在索引和本类中的对象开销
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final int STRIPES = 64;
+
+    /**
+     * LFU 新 key 的初始计数，避免刚写入的 key 立即被淘汰
+     */
+    private static final int LFU_INIT = 5;
+    private static final int LFU_LOG_FACTOR = 10;
+    /**
+     * LFU 计数每闲置这么多分钟减一
+     */
+    private static final long LFU_DECAY_MINUTES = 1;
+
+    private final long maxBytes;
+    private final EvictionPolicyTypeEnum policy;
+    private final int samples;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong usedBytes = new AtomicLong();
+    /**
+     * 已挑出、还在淘汰中的 key 的字节数，并发的写入据此只淘汰其余写入还没认领的超出部分
+     */
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MemoryLimiter(long maxBytes, EvictionPolicyTypeEnum policy, int samples) {
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.samples = Math.max(1, samples);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * key 写入了长度为 recordLen 的新记录，只由持有索引写锁的线程调用
+     */
+    public void onPut(String key, int recordLen) {
+        long weight = ENTRY_OVERHEAD + 2L * key.length() + recordLen;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, weight);
+            entries.put(key, entry);
+            stripes[stripeOf(key)].add(entry);
+            usedBytes.addAndGet(weight);
+        } else {
+            usedBytes.addAndGet(weight - entry.weight);
+            entry.weight = weight;
+            entry.evicting = false;
+        }
+        touch(entry);
+    }
+
+    /**
+     * key 被删除、过期或淘汰，只由持有索引写锁的线程调用
+     */
+    public void onRemove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            stripes[stripeOf(key)].remove(entry);
+            usedBytes.addAndGet(-entry.weight);
+        }
+    }
+
+    /**
+     * 读到了 key，不加锁
+     */
+    public void touch(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            touch(entry);
+        }
+    }
+
+    /**
+     * @return 扣除淘汰中的字节后仍超出预算的字节数，未超出时不大于 0
+     */
+    public long excessBytes() {
+        return usedBytes.get() - pendingBytes.get() - maxBytes;
+    }
+
+    /**
+     * 抽样挑出一个淘汰对象并标记为淘汰中，避免并发的写入重复挑中同一个 key；
+     * 它的字节计入淘汰中，直到调用 {@link #onEvicted(Victim)} 或 {@link #cancel(Victim)}
+     *
+     * @return 淘汰对象；没有可淘汰的 key 时返回 null
+     */
+    public Victim pickVictim() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.currentTimeMillis();
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Entry best = null;
+            long bestScore = Long.MIN_VALUE;
+            for (int i = 0; i < samples; i++) {
+                Entry entry = stripes[random.nextInt(STRIPES)].sample(random);
+                if (entry == null || entry.evicting) {
+                    continue;
+                }
+                long score = score(entry, now);
+                if (score > bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                if (entries.isEmpty()) {
+                    return null;
+                }
+                continue;
+            }
+            synchronized (best) {
+                if (!best.evicting) {
+                    best.evicting = true;
+                    Victim victim = new Victim(best.key, best.weight);
+                    pendingBytes.addAndGet(victim.weight);
+                    return victim;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一个淘汰对象已经删除
+     */
+    public void onEvicted(Victim victim) {
+        pendingBytes.addAndGet(-victim.weight);
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * 淘汰没有完成（写入墓碑失败），撤销认领，key 可以再次被挑中
+     */
+    public void cancel(Victim victim) {
+        pendingBytes.addAndGet(-victim.weight);
+        Entry entry = entries.get(victim.key);
+        if (entry != null) {
+            entry.evicting = false;
+        }
+    }
+
+    public EvictionStats getStats() {
+        return new EvictionStats(policy, maxBytes, usedBytes.get(), entries.size(), evictions.get());
+    }
+
+    /**
+     * @return 越大越该淘汰：LRU 为闲置毫秒数，LFU 为衰减后计数的反序，计数相同再比闲置时间
+     */
+    private long score(Entry entry, long now) {
+        long idle = now - entry.lastAccess;
+        if (policy == EvictionPolicyTypeEnum.LRU) {
+            return idle;
+        }
+        return ((long) (255 - decayedCounter(entry, now)) << 40) + Math.min(idle, (1L << 40) - 1);
+    }
+
+    private void touch(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (policy == EvictionPolicyTypeEnum.LFU) {
+            int counter = decayedCounter(entry, now);
+            if (counter < 255) {
+                double p = 1.0 / ((Math.max(0, counter - LFU_INIT)) * LFU_LOG_FACTOR + 1);
+                if (ThreadLocalRandom.current().nextDouble() < p) {
+                    counter++;
+                }
+            }
+            entry.counter = counter;
+        }
+        entry.lastAccess = now;
+    }
+
+    private static int decayedCounter(Entry entry, long now) {
+        long periods = (now - entry.lastAccess) / (LFU_DECAY_MINUTES * 60_000);
+        return (int) Math.max(0, entry.counter - periods);
+    }
+
+    /**
+     * 抽样先等概率选分片再在分片内选 key，分片大小不均时小分片里的 key 被抽中得多。
+     * 只差末尾几位的 key（如连续编号）hashCode 低位相关，要充分打散后再取分片
+     */
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (STRIPES - 1);
+    }
+
+    private static class Entry {
+        private final String key;
+        private volatile long weight;
+        private volatile long lastAccess;
+        private volatile int counter = LFU_INIT;
+        private volatile boolean evicting;
+        /**
+         * 在所属分片数组中的下标，由分片锁保护
+         */
+        private int slot;
+
+        Entry(String key, long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 供随机抽样的 key 数组，删除时用最后一个元素填补空位
+     */
+    private static class Stripe {
+        private final List<Entry> entries = new ArrayList<>();
+
+        synchronized void add(Entry entry) {
+            entry.slot = entries.size();
+            entries.add(entry);
+        }
+
+        synchronized void remove(Entry entry) {
+            Entry last = entries.remove(entries.size() - 1);
+            if (last != entry) {
+                last.slot = entry.slot;
+                entries.set(entry.slot, last);
+            }
+        }
+
+        synchronized Entry sample(ThreadLocalRandom random) {
+            return entries.isEmpty() ? null : entries.get(random.nextInt(entries.size()));
+        }
+    }
+
+    @Getter
+    public static class Victim {
+        private final String key;
+        private final long weight;
+
+        Victim(String key, long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 淘汰统计快照
+     */
+    @Getter
+    public static class EvictionStats {
+        private final EvictionPolicyTypeEnum policy;
+        private final long maxBytes;
+        private final long usedBytes;
+        private final int keys;
+        private final long evictions;
+
+        public EvictionStats(EvictionPolicyTypeEnum policy, long maxBytes, long usedBytes, int keys, long evictions) {
+            this.policy = policy;
+            this.maxBytes = maxBytes;
+            this.usedBytes = usedBytes;
+            this.keys = keys;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "EvictionStats{" +
+                    "policy=" + policy +
+                    ", maxBytes=" + maxBytes +
+                    ", usedBytes=" + usedBytes +
+                    ", keys=" + keys +
+                    ", evictions=" + evictions +
+                    '}';
+        }
+    }
+}
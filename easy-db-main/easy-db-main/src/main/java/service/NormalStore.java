@@ -1,8 +1,6 @@
 
 package service;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import controller.SocketServerHandler;
 import model.command.Command;
 import model.command.CommandPos;
@@ -10,23 +8,38 @@ import model.command.RmCommand;
 import model.command.SetCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import utils.CommandUtil;
+import utils.DataFileConverter;
 import utils.LoggerUtil;
-import utils.RandomAccessFileUtil;
+import utils.RecordCodec;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.jar.JarEntry;
 import java.io.*;
 import java.nio.file.*;
 import java.util.concurrent.locks.*;
-import java.util.zip.*;
 public class NormalStore implements Store {
 
     public static final String TABLE = ".table";
@@ -36,15 +49,10 @@ public class NormalStore implements Store {
     private final String logFormat = "[NormalStore][{}]: {}";
 
 
-    /**
-     * 内存表，类似缓存
-     */
-    private TreeMap<String, Command> memTable;
-
     /**
      * hash索引，存的是数据长度和偏移量
      * */
-    private HashMap<String, CommandPos> index;
+    private KeyIndex index;
 
     /**
      * 数据目录
@@ -52,244 +60,944 @@ public class NormalStore implements Store {
     private final String dataDir;
 
     /**
-     * 读写锁，支持多线程，并发安全写入
+     * 串行化写线程和合并线程对索引的修改，读不需要这把锁
      */
     private final ReadWriteLock indexLock;
 
     /**
-     * 暂存数据的日志句柄
+     * 写线程应用批量记录时持有写锁；读先乐观地读，期间有批量记录被应用就改为持有读锁重读，
+     * 使批量写入对读也是原子的，读不会看到一批中只生效了一部分的 key
+     */
+    private final StampedLock applyLock = new StampedLock();
+
+    /**
+     * 写线程应用当前这组记录时登记的撤销操作，只由写线程访问
+     */
+    private final List<Runnable> applyUndo = new ArrayList<>();
+
+    /**
+     * 读到已被合并删除的段时按新位置重试的次数
+     */
+    private static final int READ_RETRIES = 3;
+
+    /**
+     * 批量读取时，同一段内相邻记录的间隔不超过该值就合并成一次读取
+     */
+    private static final int MULTI_GET_GAP = 4096;
+
+    /**
+     * 合并后单次读取的上限
+     */
+    private static final int MULTI_GET_MAX_READ = 1024 * 1024;
+
+    /**
+     * 分段数据日志，每个段长期持有追加写通道和定位读通道
+     */
+    private SegmentManager segments;
+
+    /**
+     * 组提交写线程，所有写入经它落盘并更新索引
+     */
+    private GroupCommitWriter writer;
+
+    /**
+     * 后台合并封存段
+     */
+    private SegmentMerger merger;
+
+    /**
+     * 解码值缓存，未开启时为 null
+     */
+    private ValueCache cache;
+
+    private final StoreConfig config;
+
+    /**
+     * 最后一批已应用到索引的记录的结束位置，检查点的 LSN 取自这里；由索引锁保护
+     */
+    private int appliedSegment;
+    private long appliedEnd;
+
+    /**
+     * 后台写检查点，未开启定时检查点时为 null
+     */
+    private ScheduledExecutorService checkpointer;
+
+    /**
+     * 上一个检查点的 LSN 和段，没有变化时不重复写
+     */
+    private int checkpointSegment = -1;
+    private long checkpointOffset = -1;
+    private Set<Integer> checkpointSegments = Collections.emptySet();
+
+    /**
+     * 带过期时间的 key 当前的过期时刻，由索引锁保护写入
      */
-    private RandomAccessFile writerReader;
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+
+    /**
+     * 登记过期时刻的时间轮，到期后由后台线程删除 key
+     */
+    private final TimerWheel timers;
+
+    /**
+     * 每个 key 在时间轮中唯一未到期的定时器的到期时刻，由索引锁保护。
+     * 过期时刻推后时不再登记新定时器，旧定时器到期时按 expiries 中的时刻重新登记
+     */
+    private final Map<String, Long> armed = new HashMap<>();
+
+    private ScheduledExecutorService expirer;
+
+    private final AtomicLong expiredKeys = new AtomicLong();
+
+    /**
+     * 缓存模式的内存预算，未开启时为 null
+     */
+    private final MemoryLimiter limiter;
+
+    /**
+     * 一次写入前最多淘汰的 key 数
+     */
+    private static final int MAX_EVICTIONS_PER_WRITE = 1024;
 
     /**
      * 持久化阈值
      */
 //    private final int storeThreshold;
-    private static final int MAX_FILE_SIZE = 1024 * 1024 * 10; // 10MB
+    /**
+     * 旧版本的文本 WAL，数据日志成为恢复日志后只在启动时重放一次并删除
+     */
     private static final String WAL_FILE = "wal.log";
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final String FLUSHING_WAL_FILE = "wal.log.flushing";
 
     public NormalStore(String dataDir) {
+        this(dataDir, new StoreConfig());
+    }
+
+    public NormalStore(String dataDir, StoreConfig config) {
         this.dataDir = dataDir;
+        this.config = config;
         this.indexLock = new ReentrantReadWriteLock();
-        this.memTable = new TreeMap<String, Command>();
-        this.index = new HashMap<>();
+        this.index = KeyIndex.create(config.getIndexType());
+        this.timers = new TimerWheel(config.getTtlTickMs(), System.currentTimeMillis());
+        this.limiter = config.getMaxMemoryBytes() > 0
+                ? new MemoryLimiter(config.getMaxMemoryBytes(), config.getEvictionPolicy(), config.getEvictionSamples()) : null;
 
         File file = new File(dataDir);
         if (!file.exists()) {
             LoggerUtil.info(LOGGER,logFormat, "NormalStore","dataDir isn't exist,creating...");
             file.mkdirs();
         }
+        try {
+            DataFileConverter.convertIfNeeded(this.genFilePath());
+            this.segments = new SegmentManager(dataDir, config);
+            this.segments.open(this.genFilePath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         this.reloadIndex();
-        new Thread(this::monitorFileSize).start(); // 启动文件监控线程
-        createWalFile();
+        this.cache = config.getValueCacheBytes() > 0 ? new ValueCache(config.getValueCacheBytes()) : null;
+        this.writer = new GroupCommitWriter(segments, config, this::applyBatch);
+        this.merger = new SegmentMerger(segments, config, new MergeIndexAccess());
         replayWal();
-    }
-    private void writeWal(String log) throws IOException {
-        lock.writeLock().lock();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(WAL_FILE, true))) {
-            writer.write(log);
-            writer.newLine();
-        } finally {
-            lock.writeLock().unlock();
+        if (config.getCheckpointIntervalMs() > 0) {
+            this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, config.getCheckpointIntervalMs(),
+                    config.getCheckpointIntervalMs(), TimeUnit.MILLISECONDS);
         }
+        this.expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ttl-expirer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expirer.scheduleWithFixedDelay(this::expireQuietly, config.getTtlTickMs(), config.getTtlTickMs(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private String walPath(String name) {
+        return this.dataDir + File.separator + name;
     }
 
+    /**
+     * 数据日志本身就是恢复日志，崩溃后的残缺尾部在重建索引时截掉。
+     * 旧版本留下的文本 WAL（先冻结的、再活跃的）在这里按顺序重放进数据日志，然后删除
+     */
     private void replayWal() {
-        lock.writeLock().lock();
-        try (BufferedReader reader = new BufferedReader(new FileReader(WAL_FILE))) {
-            String log;
-            while ((log = reader.readLine()) != null) {
-                // 解析并执行日志中的命令
-                // 此处需要根据日志格式进行解析和恢复操作
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println("WAL file not found, skipping replay");
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (String name : new String[]{FLUSHING_WAL_FILE, WAL_FILE}) {
+                File file = new File(walPath(name));
+                if (!file.exists()) {
+                    continue;
+                }
+                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                    String log;
+                    while ((log = reader.readLine()) != null) {
+                        // 解析并执行日志中的命令：SET key value / RM key
+                        String[] parts = log.split(" ", 3);
+                        Command command = null;
+                        if (parts.length == 3 && "SET".equals(parts[0])) {
+                            command = new SetCommand(unescape(parts[1]), unescape(parts[2]));
+                        } else if (parts.length == 2 && "RM".equals(parts[0])) {
+                            command = new RmCommand(unescape(parts[1]));
+                        }
+                        if (command != null) {
+                            futures.add(writer.submit(command.getKey(), RecordCodec.encode(command)));
+                        }
+                    }
+                }
+            }
+            if (futures.isEmpty()) {
+                return;
+            }
+            for (CompletableFuture<Void> future : futures) {
+                future.join();
+            }
+            segments.force();
+            LoggerUtil.info(LOGGER, logFormat, "replayWal", "replayed " + futures.size() + " WAL entries into the data log");
+            Files.deleteIfExists(Paths.get(walPath(FLUSHING_WAL_FILE)));
+            Files.deleteIfExists(Paths.get(walPath(WAL_FILE)));
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            lock.writeLock().unlock();
+            throw new RuntimeException(e);
         }
     }
-    private void createWalFile() {
-        lock.writeLock().lock();
-        try {
-            File file = new File(WAL_FILE);
-            if (!file.exists()) {
-                file.createNewFile();
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next == 's' ? ' ' : next);
+            } else {
+                sb.append(c);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            lock.writeLock().unlock();
         }
+        return sb.toString();
     }
     public String genFilePath() {
         return this.dataDir + File.separator + NAME + TABLE;
     }
 
-    private void monitorFileSize() {
-        while (true) {
-            try {
-                File file = new File(this.genFilePath());
-                if (file.length() > MAX_FILE_SIZE) {
-                    rotateAndCompressFile(file);
+    /**
+     * 重建索引：有可用的检查点时载入它，只重放检查点之后的日志；
+     * 否则按段号顺序全部重建，封存段优先读提示文件，其余段大块读取后由多个线程并行解码，按日志顺序应用
+     */
+    public void reloadIndex() {
+        try {
+            IndexLoader loader = new IndexLoader(segments, config.getReloadThreads());
+            Checkpoint checkpoint = Checkpoint.read(Checkpoint.path(dataDir), segments);
+            if (checkpoint == null) {
+                loader.load(this::applyRecord);
+            } else {
+                long now = System.currentTimeMillis();
+                checkpoint.forEach((key, pos, tombstone, expireAt) -> {
+                    if (RecordCodec.isExpired(expireAt, now)) {
+                        return;
+                    }
+                    index.put(key, pos);
+                    if (limiter != null) {
+                        limiter.onPut(key, pos.getLen());
+                    }
+                    if (expireAt > 0) {
+                        expiries.put(key, expireAt);
+                        arm(key, expireAt);
+                    }
+                });
+                LoggerUtil.info(LOGGER, logFormat, "reloadIndex", "loaded checkpoint with " + index.size()
+                        + " keys, replaying from segment " + checkpoint.getLsnSegment() + " offset " + checkpoint.getLsnOffset());
+                loader.load(this::applyRecord, checkpoint.getLsnSegment(), checkpoint.getLsnOffset());
+                recomputeSegmentBytes();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.appliedSegment = segments.getActiveId();
+        this.appliedEnd = segments.getActive().tail();
+        LoggerUtil.debug(LOGGER, logFormat, "reloadIndex", "loaded " + index.size() + " keys");
+    }
+
+    /**
+     * 从检查点载入后按索引重新统计各段的存活字节，段中其余的字节都算可回收。
+     * 检查点不保存各段的字节数：它们与索引的遍历不在同一时刻，LSN 之后被覆盖的 key 在遍历时已是新位置，
+     * 重放时旧记录不会再被计为可回收，所在的段永远达不到合并阈值。
+     * 墓碑不在索引中，这里也算作可回收，合并时仍按是否还有旧值决定保留
+     */
+    private void recomputeSegmentBytes() {
+        Map<Integer, Long> live = new HashMap<>();
+        index.forEach((key, pos) -> live.merge(pos.getSegmentId(), (long) (DataFile.LEN_SIZE + pos.getLen()), Long::sum));
+        for (Map.Entry<Integer, DataFile> entry : segments.getSegments().entrySet()) {
+            long liveBytes = live.getOrDefault(entry.getKey(), 0L);
+            entry.getValue().resetBytes(liveBytes, Math.max(0, entry.getValue().size() - liveBytes));
+        }
+    }
+
+    /**
+     * 按日志顺序应用一条记录：旧位置变为可回收；rm 从索引中删除 key，墓碑本身计为存活，
+     * 直到合并确认它之前已没有该 key 的旧值。
+     * 已经过期的记录等同于删除，但它本身直接计为可回收，合并时改写成墓碑
+     */
+    private void applyRecord(String key, CommandPos cmdPos, boolean tombstone, long expireAt) {
+        applyRecord(key, cmdPos, tombstone, expireAt, System.currentTimeMillis());
+    }
+
+    private void applyRecord(String key, CommandPos cmdPos, boolean tombstone, long expireAt, long now) {
+        boolean expired = RecordCodec.isExpired(expireAt, now);
+        CommandPos old = tombstone || expired ? index.remove(key) : index.put(key, cmdPos);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        if (limiter != null) {
+            if (tombstone || expired) {
+                limiter.onRemove(key);
+            } else {
+                limiter.onPut(key, cmdPos.getLen());
+            }
+        }
+        if (expireAt > 0 && !expired) {
+            expiries.put(key, expireAt);
+            arm(key, expireAt);
+        } else {
+            expiries.remove(key);
+        }
+        if (old != null && !old.equals(cmdPos)) {
+            DataFile oldSegment = segments.get(old.getSegmentId());
+            if (oldSegment != null) {
+                oldSegment.markDead(DataFile.LEN_SIZE + old.getLen());
+            }
+        }
+        DataFile segment = segments.get(cmdPos.getSegmentId());
+        if (segment != null) {
+            if (expired) {
+                segment.addDead(DataFile.LEN_SIZE + cmdPos.getLen());
+            } else {
+                segment.addLive(DataFile.LEN_SIZE + cmdPos.getLen());
+            }
+        }
+    }
+
+    /**
+     * 写线程调用：先登记撤销操作再应用记录，撤销时把 key 的位置、过期时刻和各段的字节统计恢复到应用之前
+     */
+    private void applyLogged(String key, CommandPos cmdPos, boolean tombstone, long expireAt, long now) {
+        CommandPos old = index.get(key);
+        Long oldExpireAt = expiries.get(key);
+        boolean expired = RecordCodec.isExpired(expireAt, now);
+        applyUndo.add(() -> {
+            if (old == null) {
+                index.remove(key);
+            } else {
+                index.put(key, old);
+            }
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            if (limiter != null) {
+                if (old == null) {
+                    limiter.onRemove(key);
+                } else {
+                    limiter.onPut(key, old.getLen());
                 }
-                Thread.sleep(5000); // 每5秒检查一次
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
             }
+            if (oldExpireAt == null) {
+                expiries.remove(key);
+            } else {
+                expiries.put(key, oldExpireAt);
+            }
+            if (old != null && !old.equals(cmdPos)) {
+                DataFile oldSegment = segments.get(old.getSegmentId());
+                if (oldSegment != null) {
+                    oldSegment.markDead(-(DataFile.LEN_SIZE + old.getLen()));
+                }
+            }
+            DataFile segment = segments.get(cmdPos.getSegmentId());
+            if (segment != null) {
+                if (expired) {
+                    segment.addDead(-(DataFile.LEN_SIZE + cmdPos.getLen()));
+                } else {
+                    segment.addLive(-(DataFile.LEN_SIZE + cmdPos.getLen()));
+                }
+            }
+        });
+        applyRecord(key, cmdPos, tombstone, expireAt, now);
+    }
+
+    /**
+     * key 没有未到期的定时器、或新的过期时刻更早时才登记定时器
+     */
+    private void arm(String key, long expireAt) {
+        Long current = armed.get(key);
+        if (current == null || expireAt < current) {
+            armed.put(key, expireAt);
+            timers.schedule(key, expireAt);
         }
     }
-    private void rotateAndCompressFile(File file) {
-        lock.writeLock().lock();
+
+    /**
+     * 删除时间轮中到期的 key。期间被删除的 key 跳过，过期时刻被推后的 key 按新时刻重新登记；
+     * 不写墓碑，重启时数据日志中的记录本身已经带着过期时刻
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        List<TimerWheel.Timer> due = timers.advance(now);
+        if (due.isEmpty()) {
+            return;
+        }
+        int removed = 0;
+        indexLock.writeLock().lock();
         try {
-            File rotatedFile = new File(file.getAbsolutePath() + System.currentTimeMillis());
-            Files.move(file.toPath(), rotatedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            new Thread(() -> compressFile(rotatedFile)).start();
-        } catch (IOException e) {
-            e.printStackTrace();
+            for (TimerWheel.Timer timer : due) {
+                Long current = armed.get(timer.getKey());
+                if (current == null || current != timer.getExpireAt()) {
+                    // 已被更早的定时器取代
+                    continue;
+                }
+                armed.remove(timer.getKey());
+                Long expireAt = expiries.get(timer.getKey());
+                if (expireAt == null) {
+                    continue;
+                }
+                if (!RecordCodec.isExpired(expireAt, now)) {
+                    arm(timer.getKey(), expireAt);
+                    continue;
+                }
+                expiries.remove(timer.getKey());
+                CommandPos old = index.remove(timer.getKey());
+                if (cache != null) {
+                    cache.invalidate(timer.getKey());
+                }
+                if (limiter != null) {
+                    limiter.onRemove(timer.getKey());
+                }
+                if (old != null) {
+                    DataFile oldSegment = segments.get(old.getSegmentId());
+                    if (oldSegment != null) {
+                        oldSegment.markDead(DataFile.LEN_SIZE + old.getLen());
+                    }
+                    removed++;
+                }
+            }
         } finally {
-            lock.writeLock().unlock();
+            indexLock.writeLock().unlock();
         }
+        expiredKeys.addAndGet(removed);
     }
 
-    private void compressFile(File file) {
-        try (FileInputStream fis = new FileInputStream(file);
-             FileOutputStream fos = new FileOutputStream(file.getAbsolutePath() + ".gz");
-             GZIPOutputStream gzos = new GZIPOutputStream(fos)) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = fis.read(buffer)) != -1) {
-                gzos.write(buffer, 0, len);
-            }
-            file.delete();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void expireQuietly() {
+        try {
+            expire();
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "expire", "expiring keys failed");
         }
     }
-    public void reloadIndex() {
+
+    /**
+     * 超出内存预算时，在写入前抽样淘汰 key，直到挑出的 key 足以抵消超出的字节数。
+     * 挑出的 key 在写完前就计入淘汰中，并发的写入只淘汰还没被认领的超出部分，不会各自淘汰一遍。
+     * 淘汰写一条批量墓碑而不是只删索引，否则合并丢掉被淘汰的记录后，更老段中的旧值会在重启时复活
+     */
+    private void evictIfNeeded() {
+        if (limiter == null) {
+            return;
+        }
+        long excess = limiter.excessBytes();
+        if (excess <= 0) {
+            return;
+        }
+        List<MemoryLimiter.Victim> victims = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        while (excess > 0 && records.size() < MAX_EVICTIONS_PER_WRITE) {
+            MemoryLimiter.Victim victim = limiter.pickVictim();
+            if (victim == null) {
+                break;
+            }
+            victims.add(victim);
+            records.add(RecordCodec.encodeRm(victim.getKey()));
+            excess -= victim.getWeight();
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        boolean evicted = false;
         try {
-            RandomAccessFile file = new RandomAccessFile(this.genFilePath(), RW_MODE);
-            long len = file.length();
-            long start = 0;
-            file.seek(start);
-            while (start < len) {
-                int cmdLen = file.readInt();
-                byte[] bytes = new byte[cmdLen];
-                file.read(bytes);
-                JSONObject value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
-                Command command = CommandUtil.jsonToCommand(value);
-                start += 4;
-                if (command != null) {
-                    CommandPos cmdPos = new CommandPos((int) start, cmdLen);
-                    index.put(command.getKey(), cmdPos);
+            writer.submit(null, RecordCodec.encodeBatch(records)).join();
+            evicted = true;
+        } finally {
+            for (MemoryLimiter.Victim victim : victims) {
+                if (evicted) {
+                    limiter.onEvicted(victim);
+                } else {
+                    limiter.cancel(victim);
                 }
-                start += cmdLen;
             }
-            file.seek(file.length());
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        LoggerUtil.debug(LOGGER, logFormat, "reload index: "+index.toString());
+    }
+
+    /**
+     * @return 距今 ttlMillis 毫秒的过期时刻
+     */
+    static long expireAt(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttl must be positive: " + ttlMillis);
+        }
+        return System.currentTimeMillis() + ttlMillis;
     }
 
     @Override
     public void set(String key, String value) {
         try {
+            evictIfNeeded();
             SetCommand command = new SetCommand(key, value);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-            // 加锁
-            indexLock.writeLock().lock();
-            // TODO://先写内存表，内存表达到一定阀值再写进磁盘
-            // 写table（wal）文件
-            RandomAccessFileUtil.writeInt(this.genFilePath(), commandBytes.length);
-            int pos = RandomAccessFileUtil.write(this.genFilePath(), commandBytes);
-            // 保存到memTable
-            // 添加索引
-            CommandPos cmdPos = new CommandPos(pos, commandBytes.length);
-            index.put(key, cmdPos);
-            // TODO://判断是否需要将内存表中的值写回table
+            byte[] commandBytes = RecordCodec.encode(command);
+            // 数据日志本身就是恢复日志：交给组提交写线程写入，按刷盘策略落盘后由它按日志顺序更新索引
+            writer.submit(key, commandBytes).join();
         } catch (Throwable t) {
             throw new RuntimeException(t);
-        } finally {
-            indexLock.writeLock().unlock();
         }
+    }
+
+    @Override
+    public void set(String key, String value, long ttlMillis) {
+        long expireAt = expireAt(ttlMillis);
         try {
-            writeWal("SET " + key + " " + value);
-        } catch (IOException e) {
-            e.printStackTrace();
+            evictIfNeeded();
+            writer.submit(key, RecordCodec.encodeSet(key, value, expireAt)).join();
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
         }
     }
 
     @Override
     public String get(String key) {
-        try {
-            indexLock.readLock().lock();
-            // 从索引中获取信息
-            CommandPos cmdPos = index.get(key);
-            if (cmdPos == null) {
-                return null;
+        long stamp = applyLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String value = read(key);
+                if (applyLock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // 读到一半有记录被应用时的失败不算数，持锁重读
+                if (applyLock.validate(stamp)) {
+                    throw e;
+                }
             }
-            byte[] commandBytes = RandomAccessFileUtil.readByIndex(this.genFilePath(), cmdPos.getPos(), cmdPos.getLen());
+        }
+        stamp = applyLock.readLock();
+        try {
+            return read(key);
+        } finally {
+            applyLock.unlockRead(stamp);
+        }
+    }
 
-            JSONObject value = JSONObject.parseObject(new String(commandBytes));
-            Command cmd = CommandUtil.jsonToCommand(value);
-            if (cmd instanceof SetCommand) {
-                return ((SetCommand) cmd).getValue();
+    private String read(String key) {
+        try {
+            // 读路径不加锁：索引读不阻塞，记录用定位读或内存映射读取
+            for (int attempt = 0; ; attempt++) {
+                CommandPos cmdPos = index.get(key);
+                if (cmdPos == null) {
+                    return null;
+                }
+                if (limiter != null && attempt == 0) {
+                    limiter.touch(key);
+                }
+                if (cache != null) {
+                    String cached = cache.get(key, cmdPos);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                byte[] commandBytes;
+                try {
+                    commandBytes = segments.read(cmdPos.getSegmentId(), cmdPos.getPos(), cmdPos.getLen());
+                } catch (IOException e) {
+                    // 合并可能刚把记录搬到新段并删除了旧段，索引位置变了就按新位置重读
+                    if (attempt < READ_RETRIES && !cmdPos.equals(index.get(key))) {
+                        continue;
+                    }
+                    throw e;
+                }
+                // 直接从记录中切出 value，rm 记录返回 null；已过期但还没被后台删除的记录同样返回 null
+                ByteBuffer record = ByteBuffer.wrap(commandBytes);
+                long expireAt = RecordCodec.readExpireAt(record);
+                if (RecordCodec.isExpired(expireAt, System.currentTimeMillis())) {
+                    return null;
+                }
+                String value = RecordCodec.readValue(record, key);
+                // 带过期时间的值不进缓存，缓存命中时就不必再检查过期
+                if (cache != null && value != null && expireAt == 0) {
+                    cache.put(key, cmdPos, value);
+                }
+                return value;
             }
-            if (cmd instanceof RmCommand) {
-                return null;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 先在索引中查出全部位置，按段分组、段内按偏移排序，间隔不大的相邻记录合并成一次读取，
+     * 再从读出的块中逐条切出 value
+     */
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        long stamp = applyLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Map<String, String> result = readAll(keys);
+                if (applyLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (applyLock.validate(stamp)) {
+                    throw e;
+                }
             }
+        }
+        stamp = applyLock.readLock();
+        try {
+            return readAll(keys);
+        } finally {
+            applyLock.unlockRead(stamp);
+        }
+    }
 
+    private Map<String, String> readAll(Collection<String> keys) {
+        try {
+            Map<String, String> result = new HashMap<>();
+            Map<Integer, List<Lookup>> bySegment = new TreeMap<>();
+            for (String key : new HashSet<>(keys)) {
+                CommandPos cmdPos = index.get(key);
+                if (cmdPos == null) {
+                    continue;
+                }
+                if (limiter != null) {
+                    limiter.touch(key);
+                }
+                if (cache != null) {
+                    String cached = cache.get(key, cmdPos);
+                    if (cached != null) {
+                        result.put(key, cached);
+                        continue;
+                    }
+                }
+                bySegment.computeIfAbsent(cmdPos.getSegmentId(), id -> new ArrayList<>()).add(new Lookup(key, cmdPos));
+            }
+            for (Map.Entry<Integer, List<Lookup>> entry : bySegment.entrySet()) {
+                List<Lookup> lookups = entry.getValue();
+                lookups.sort(Comparator.comparingLong(lookup -> lookup.pos.getPos()));
+                int i = 0;
+                while (i < lookups.size()) {
+                    long start = lookups.get(i).pos.getPos();
+                    long end = start + lookups.get(i).pos.getLen();
+                    int j = i + 1;
+                    for (; j < lookups.size(); j++) {
+                        CommandPos next = lookups.get(j).pos;
+                        long nextEnd = next.getPos() + next.getLen();
+                        if (next.getPos() - end > MULTI_GET_GAP || nextEnd - start > MULTI_GET_MAX_READ) {
+                            break;
+                        }
+                        end = Math.max(end, nextEnd);
+                    }
+                    readRange(entry.getKey(), lookups.subList(i, j), start, end, result);
+                    i = j;
+                }
+            }
+            return result;
         } catch (Throwable t) {
             throw new RuntimeException(t);
-        } finally {
-            indexLock.readLock().unlock();
         }
+    }
+
+    /**
+     * 一次读出 [start, end)，从中切出各条记录的 value
+     */
+    private void readRange(int segmentId, List<Lookup> lookups, long start, long end, Map<String, String> result) {
+        byte[] block;
         try {
-            writeWal("RM " + key);
+            block = segments.read(segmentId, start, (int) (end - start));
         } catch (IOException e) {
-            e.printStackTrace();
+            // 段可能刚被合并删除，逐个按索引中的新位置重读
+            for (Lookup lookup : lookups) {
+                String value = read(lookup.key);
+                if (value != null) {
+                    result.put(lookup.key, value);
+                }
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Lookup lookup : lookups) {
+            ByteBuffer record = ByteBuffer.wrap(block, (int) (lookup.pos.getPos() - start), lookup.pos.getLen());
+            long expireAt = RecordCodec.readExpireAt(record);
+            if (RecordCodec.isExpired(expireAt, now)) {
+                continue;
+            }
+            String value = RecordCodec.readValue(record, lookup.key);
+            if (value != null) {
+                result.put(lookup.key, value);
+                if (cache != null && expireAt == 0) {
+                    cache.put(lookup.key, lookup.pos, value);
+                }
+            }
         }
-        return null;
-
     }
 
     @Override
     public void rm(String key) {
         try {
             RmCommand command = new RmCommand(key);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-            // 加锁
-            indexLock.writeLock().lock();
-            // TODO://先写内存表，内存表达到一定阀值再写进磁盘
+            byte[] commandBytes = RecordCodec.encode(command);
+            // 写入墓碑记录，落盘后由写线程从索引中删除 key
+            writer.submit(key, commandBytes).join();
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 整批编码成一条批量记录，一次追加、一次落盘，索引在一次加锁内更新
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            evictIfNeeded();
+            List<byte[]> records = new ArrayList<>(batch.size());
+            for (Command command : batch.getCommands()) {
+                records.add(RecordCodec.encode(command));
+            }
+            // 批量记录内部各有自己的 key，这里不需要
+            writer.submit(null, RecordCodec.encodeBatch(records)).join();
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 在写线程中调用，一次加锁按日志顺序应用整批索引更新；批量记录按内层记录逐条应用。
+     * 单条 set/rm 对一个 key 的索引更新本身是原子的，不需要 applyLock，读不会因此退回阻塞的读锁；
+     * 只有批量记录在应用内层记录期间持有 applyLock 的写锁。
+     * 中途失败时倒序撤销已应用的记录再抛出，写线程随后截掉这组记录，索引不会指向被截掉的位置
+     */
+    private void applyBatch(List<GroupCommitWriter.Entry> batch) {
+        indexLock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (GroupCommitWriter.Entry entry : batch) {
+                byte[] record = entry.getRecord();
+                byte type = RecordCodec.readType(ByteBuffer.wrap(record));
+                if (type == RecordCodec.TYPE_BATCH) {
+                    long stamp = applyLock.writeLock();
+                    try {
+                        RecordCodec.forEachInBatch(ByteBuffer.wrap(record), (offset, len) -> {
+                            ByteBuffer inner = ByteBuffer.wrap(record, offset, len);
+                            applyLogged(RecordCodec.readKey(inner), new CommandPos(entry.getSegmentId(), entry.getPos() + offset, len),
+                                    RecordCodec.readType(inner) == RecordCodec.TYPE_RM, RecordCodec.readExpireAt(inner), now);
+                        });
+                    } finally {
+                        applyLock.unlockWrite(stamp);
+                    }
+                } else {
+                    applyLogged(entry.getKey(), new CommandPos(entry.getSegmentId(), entry.getPos(), record.length),
+                            type == RecordCodec.TYPE_RM, RecordCodec.readExpireAt(ByteBuffer.wrap(record)), now);
+                }
+            }
+            GroupCommitWriter.Entry last = batch.get(batch.size() - 1);
+            appliedSegment = last.getSegmentId();
+            appliedEnd = last.getPos() + last.getRecord().length;
+        } catch (Throwable t) {
+            undoApplied(t);
+            throw t;
+        } finally {
+            applyUndo.clear();
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 倒序撤销这组已应用的记录；撤销期间持有 applyLock 的写锁，读不会看到恢复了一半的批量写入
+     */
+    private void undoApplied(Throwable cause) {
+        long stamp = applyLock.writeLock();
+        try {
+            for (int i = applyUndo.size() - 1; i >= 0; i--) {
+                try {
+                    applyUndo.get(i).run();
+                } catch (Throwable t) {
+                    cause.addSuppressed(t);
+                }
+            }
+        } finally {
+            applyLock.unlockWrite(stamp);
+        }
+    }
+
+    public GroupCommitWriter.WriteStats getWriteStats() {
+        return writer.getStats();
+    }
+
+    /**
+     * @return 缓存统计；未开启缓存时返回 null
+     */
+    public ValueCache.CacheStats getCacheStats() {
+        return cache == null ? null : cache.getStats();
+    }
 
-            // 写table（wal）文件
-            int pos = RandomAccessFileUtil.write(this.genFilePath(), commandBytes);
-            // 保存到memTable
+    /**
+     * 后台删除的过期 key 数
+     */
+    public long getExpiredKeys() {
+        return expiredKeys.get();
+    }
 
-            // 添加索引
-            CommandPos cmdPos = new CommandPos(pos, commandBytes.length);
-            index.put(key, cmdPos);
+    /**
+     * @return 内存预算和淘汰统计；未开启内存预算时返回 null
+     */
+    public MemoryLimiter.EvictionStats getEvictionStats() {
+        return limiter == null ? null : limiter.getStats();
+    }
 
-            // TODO://判断是否需要将内存表中的值写回table
+    public SegmentMerger.MergeStats getMergeStats() {
+        return merger.getStats();
+    }
 
+    /**
+     * 立即合并一次可回收比例超过阈值的封存段
+     */
+    public void merge() {
+        try {
+            merger.mergeNow();
         } catch (Throwable t) {
             throw new RuntimeException(t);
-        } finally {
-            indexLock.writeLock().unlock();
         }
+    }
+
+    /**
+     * 写一个索引检查点。只在索引读锁下取 LSN 和当时的段，遍历索引、写文件都在锁外进行，不阻塞写入；
+     * LSN 所在的段刚被合并掉时跳过这一次
+     */
+    public synchronized void checkpoint() {
         try {
-            writeWal("RM " + key);
-        } catch (IOException e) {
-            e.printStackTrace();
+            int lsnSegment;
+            long lsnOffset;
+            Set<Integer> segmentIds;
+            indexLock.readLock().lock();
+            try {
+                lsnSegment = appliedSegment;
+                lsnOffset = appliedEnd;
+                segmentIds = new TreeSet<>(segments.getSegments().keySet());
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            if (!segmentIds.contains(lsnSegment)) {
+                LoggerUtil.debug(LOGGER, logFormat, "checkpoint", "segment " + lsnSegment + " was merged, skipping");
+                return;
+            }
+            if (lsnSegment == checkpointSegment && lsnOffset == checkpointOffset
+                    && segmentIds.equals(checkpointSegments)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            // 检查点中的记录必须先落盘，否则崩溃后检查点会指向丢失的记录；刷盘在遍历索引之后、替换检查点之前进行
+            Checkpoint.write(Checkpoint.path(dataDir), lsnSegment, lsnOffset, segmentIds, index, expiries, segments);
+            checkpointSegment = lsnSegment;
+            checkpointOffset = lsnOffset;
+            checkpointSegments = segmentIds;
+            LoggerUtil.info(LOGGER, logFormat, "checkpoint", "checkpoint at segment " + lsnSegment + " offset "
+                    + lsnOffset + " written in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "checkpoint", "checkpoint failed");
         }
     }
 
     @Override
     public void close() throws IOException {
+        expirer.shutdown();
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        merger.close();
+        writer.close();
+        // 写入和合并都已停止，最后一个检查点让下次启动不必重放日志
+        checkpoint();
+        indexLock.writeLock().lock();
+        try {
+            segments.close();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private static class Lookup {
+        private final String key;
+        private final CommandPos pos;
+
+        Lookup(String key, CommandPos pos) {
+            this.key = key;
+            this.pos = pos;
+        }
+    }
 
+    /**
+     * 合并线程对索引的访问：检查存活直接读索引，替换位置时每批加一次写锁，与写线程互斥
+     */
+    private class MergeIndexAccess implements SegmentMerger.IndexAccess {
+
+        @Override
+        public boolean[] liveMask(List<String> keys, List<CommandPos> positions) {
+            boolean[] live = new boolean[keys.size()];
+            for (int i = 0; i < live.length; i++) {
+                live[i] = positions.get(i).equals(index.get(keys.get(i)));
+            }
+            return live;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return index.containsKey(key);
+        }
+
+        @Override
+        public void relocate(List<SegmentMerger.Relocation> moves) {
+            indexLock.writeLock().lock();
+            try {
+                for (SegmentMerger.Relocation move : moves) {
+                    DataFile target = segments.get(move.getTo().getSegmentId());
+                    long bytes = DataFile.LEN_SIZE + move.getTo().getLen();
+                    // 复制期间被覆盖或删除的记录在新段中直接算作可回收
+                    if (index.replace(move.getKey(), move.getFrom(), move.getTo())) {
+                        target.addLive(bytes);
+                    } else {
+                        target.addDead(bytes);
+                    }
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
     }
 }
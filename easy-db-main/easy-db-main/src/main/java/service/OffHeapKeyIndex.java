@@ -0,0 +1,400 @@
+package service;
+
+import model.command.CommandPos;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 紧凑索引：线性探测的开放寻址表，每个槽位是 long[] 中连续的两个 long，堆上不为 key 分配任何对象。
+ * <ul>
+ *     <li>key 引用：高 32 位 key 的哈希，低 32 位为 key 在堆外区域中的位置（8 位块号，从 1 开始，24 位块内偏移）；为 0 表示空槽</li>
+ *     <li>位置：高 28 位段号，低 36 位段内偏移</li>
+ * </ul>
+ * 堆外块中每个 key 存为“记录长度(4)+key 长度(4)+UTF-8 字节”，查找时原地比较，覆盖写时原地更新记录长度。
+ * 删除不留墓碑，后续槽位向前移动；删除留下的堆外空洞超过一半时整体搬迁一次。
+ * <p>
+ * 读用 StampedLock 乐观读，不阻塞也不被写阻塞，只有与写入冲突时才退化为读锁
+ */
+public class OffHeapKeyIndex implements KeyIndex {
+
+    private static final int SEGMENT_BITS = 28;
+    private static final int OFFSET_BITS = 64 - SEGMENT_BITS;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private static final int STRIDE = 2;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int CHUNK_OFFSET_BITS = 24;
+    private static final int ARENA_CHUNK_BYTES = 1 << CHUNK_OFFSET_BITS;
+    private static final int MAX_ARENA_CHUNKS = 255;
+    private static final int ENTRY_HEADER = 8;
+
+    private final StampedLock lock = new StampedLock();
+
+    private long[] table;
+    private int mask;
+    private int size;
+
+    /**
+     * 堆外块，下标 0 不用，保证 key 引用不为 0
+     */
+    private final List<ByteBuffer> arena = new ArrayList<>();
+    private ByteBuffer current;
+    private long arenaUsed;
+    private long arenaDead;
+
+    public OffHeapKeyIndex() {
+        this(1024);
+    }
+
+    public OffHeapKeyIndex(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedKeys / LOAD_FACTOR)) - 1) << 1;
+        table = new long[capacity * STRIDE];
+        mask = capacity - 1;
+        arena.add(null);
+    }
+
+    @Override
+    public CommandPos get(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int slot = find(bytes, hash);
+                CommandPos pos = slot < 0 ? null : unpack(slot);
+                if (lock.validate(stamp)) {
+                    return pos;
+                }
+            } catch (RuntimeException e) {
+                // 与写入并发时可能读到搬动中的槽位或堆外块，加读锁重试
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = find(bytes, hash);
+            return slot < 0 ? null : unpack(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public CommandPos put(String key, CommandPos pos) {
+        long packed = pack(pos);
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(bytes, hash);
+            if (slot >= 0) {
+                CommandPos old = unpack(slot);
+                table[slot * STRIDE + 1] = packed;
+                setLen(table[slot * STRIDE], pos.getLen());
+                return old;
+            }
+            if (size + 1 > (mask + 1) * LOAD_FACTOR) {
+                resize();
+            }
+            slot = hash & mask;
+            while (table[slot * STRIDE] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot * STRIDE] = (long) hash << 32 | storeKey(bytes, pos.getLen()) & 0xFFFFFFFFL;
+            table[slot * STRIDE + 1] = packed;
+            size++;
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public CommandPos remove(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(bytes, hash);
+            if (slot < 0) {
+                return null;
+            }
+            CommandPos old = unpack(slot);
+            arenaDead += ENTRY_HEADER + bytes.length;
+            deleteSlot(slot);
+            size--;
+            if (arenaDead > ARENA_CHUNK_BYTES && arenaDead * 2 > arenaUsed) {
+                compactArena();
+            }
+            return old;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean replace(String key, CommandPos expect, CommandPos update) {
+        long packed = pack(update);
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(bytes, hash);
+            if (slot < 0 || !unpack(slot).equals(expect)) {
+                return false;
+            }
+            table[slot * STRIDE + 1] = packed;
+            setLen(table[slot * STRIDE], update.getLen());
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 在读锁下只复制槽位表和各 key 的记录长度，解码 key 和回调都在锁外进行。
+     * 堆外块只追加、搬迁时换新块，复制出来的块引用在遍历期间保持不变
+     */
+    @Override
+    public void forEach(BiConsumer<String, CommandPos> action) {
+        long[] slots;
+        int[] lens;
+        List<ByteBuffer> chunks;
+        long stamp = lock.readLock();
+        try {
+            slots = table.clone();
+            lens = new int[slots.length / STRIDE];
+            for (int i = 0; i < lens.length; i++) {
+                if (slots[i * STRIDE] != 0) {
+                    lens[i] = getLen(slots[i * STRIDE]);
+                }
+            }
+            chunks = new ArrayList<>(arena);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for (int i = 0; i < lens.length; i++) {
+            long ref = slots[i * STRIDE];
+            if (ref == 0) {
+                continue;
+            }
+            ByteBuffer chunk = chunks.get(chunkOf((int) ref));
+            int offset = offsetOf((int) ref);
+            byte[] key = new byte[chunk.getInt(offset + 4)];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = chunk.get(offset + ENTRY_HEADER + j);
+            }
+            long packed = slots[i * STRIDE + 1];
+            action.accept(new String(key, StandardCharsets.UTF_8),
+                    new CommandPos((int) (packed >>> OFFSET_BITS), packed & OFFSET_MASK, lens[i]));
+        }
+    }
+
+    /**
+     * 槽位表占用的堆内字节数
+     */
+    public long heapBytes() {
+        return (long) table.length * Long.BYTES;
+    }
+
+    /**
+     * 堆外 key 区域已分配的字节数
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (int i = 1; i < arena.size(); i++) {
+            bytes += arena.get(i).capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * 乐观读时表可能正被修改，探测次数以表容量为上限，保证一定会结束
+     */
+    private int find(byte[] key, int hash) {
+        long[] t = table;
+        int m = mask;
+        int slot = hash & m;
+        long ref;
+        for (int probes = 0; probes <= m && (ref = t[slot * STRIDE]) != 0; probes++) {
+            if ((int) (ref >>> 32) == hash && keyEquals((int) ref, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & m;
+        }
+        return -1;
+    }
+
+    /**
+     * 清空一个槽位，并把同一探测链上后面的槽位前移，保持查找不需要墓碑
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long ref = table[next * STRIDE];
+            if (ref == 0) {
+                break;
+            }
+            int home = (int) (ref >>> 32) & mask;
+            // home 落在 (hole, next] 之间的槽位不能移到 hole 之前
+            boolean between = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (between) {
+                continue;
+            }
+            System.arraycopy(table, next * STRIDE, table, hole * STRIDE, STRIDE);
+            hole = next;
+        }
+        table[hole * STRIDE] = 0;
+        table[hole * STRIDE + 1] = 0;
+    }
+
+    private void resize() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        mask = (mask + 1) * 2 - 1;
+        for (int i = 0; i < old.length; i += STRIDE) {
+            long ref = old[i];
+            if (ref == 0) {
+                continue;
+            }
+            int slot = (int) (ref >>> 32) & mask;
+            while (table[slot * STRIDE] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            System.arraycopy(old, i, table, slot * STRIDE, STRIDE);
+        }
+    }
+
+    /**
+     * 把仍在使用的 key 搬到新的堆外区域，释放删除留下的空洞
+     */
+    private void compactArena() {
+        List<ByteBuffer> old = new ArrayList<>(arena);
+        arena.clear();
+        arena.add(null);
+        current = null;
+        arenaUsed = 0;
+        arenaDead = 0;
+        for (int i = 0; i < table.length; i += STRIDE) {
+            long ref = table[i];
+            if (ref != 0) {
+                ByteBuffer chunk = old.get(chunkOf((int) ref));
+                int offset = offsetOf((int) ref);
+                byte[] key = new byte[chunk.getInt(offset + 4)];
+                for (int j = 0; j < key.length; j++) {
+                    key[j] = chunk.get(offset + ENTRY_HEADER + j);
+                }
+                table[i] = ref & 0xFFFFFFFF00000000L | storeKey(key, chunk.getInt(offset)) & 0xFFFFFFFFL;
+            }
+        }
+    }
+
+    /**
+     * @return key 在堆外区域中的 32 位位置
+     */
+    private int storeKey(byte[] key, int len) {
+        int need = ENTRY_HEADER + key.length;
+        if (current == null || current.remaining() < need) {
+            if (arena.size() > MAX_ARENA_CHUNKS) {
+                throw new IllegalStateException("off-heap key arena is full");
+            }
+            current = ByteBuffer.allocateDirect(Math.max(ARENA_CHUNK_BYTES, need));
+            arena.add(current);
+        }
+        int ref = (arena.size() - 1) << CHUNK_OFFSET_BITS | current.position();
+        current.putInt(len);
+        current.putInt(key.length);
+        current.put(key);
+        arenaUsed += need;
+        return ref;
+    }
+
+    private static int chunkOf(int ref) {
+        return ref >>> CHUNK_OFFSET_BITS;
+    }
+
+    private static int offsetOf(int ref) {
+        return ref & (ARENA_CHUNK_BYTES - 1);
+    }
+
+    private int getLen(long ref) {
+        return arena.get(chunkOf((int) ref)).getInt(offsetOf((int) ref));
+    }
+
+    private void setLen(long ref, int len) {
+        arena.get(chunkOf((int) ref)).putInt(offsetOf((int) ref), len);
+    }
+
+    private boolean keyEquals(int ref, byte[] key) {
+        ByteBuffer chunk = arena.get(chunkOf(ref));
+        int offset = offsetOf(ref);
+        if (chunk.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        offset += ENTRY_HEADER;
+        int i = 0;
+        for (; i + 8 <= key.length; i += 8) {
+            if (chunk.getLong(offset + i) != readLong(key, i)) {
+                return false;
+            }
+        }
+        for (; i < key.length; i++) {
+            if (chunk.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与 ByteBuffer 默认的大端序一致
+     */
+    private static long readLong(byte[] bytes, int i) {
+        return (bytes[i] & 0xFFL) << 56 | (bytes[i + 1] & 0xFFL) << 48 | (bytes[i + 2] & 0xFFL) << 40
+                | (bytes[i + 3] & 0xFFL) << 32 | (bytes[i + 4] & 0xFFL) << 24 | (bytes[i + 5] & 0xFFL) << 16
+                | (bytes[i + 6] & 0xFFL) << 8 | bytes[i + 7] & 0xFFL;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 0x9747B28C;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        // murmur3 的 fmix32，打散低位以适配按掩码取槽
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static long pack(CommandPos pos) {
+        if (pos.getSegmentId() >>> SEGMENT_BITS != 0 || pos.getPos() >>> OFFSET_BITS != 0) {
+            throw new IllegalArgumentException("position out of packable range: " + pos);
+        }
+        return (long) pos.getSegmentId() << OFFSET_BITS | pos.getPos();
+    }
+
+    private CommandPos unpack(int slot) {
+        long packed = table[slot * STRIDE + 1];
+        int len = getLen(table[slot * STRIDE]);
+        return new CommandPos((int) (packed >>> OFFSET_BITS), packed & OFFSET_MASK, len);
+    }
+}
@@ -0,0 +1,482 @@
+package service;
+
+import lombok.Getter;
+import utils.Crc32c;
+import utils.RecordCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * LSMTree 的二进制有序表文件：按 key 升序的记录切成固定大小的数据块，之后是布隆过滤器块、稀疏索引块和定长的文件尾。
+ * 打开时只把过滤器和索引块读进内存，查找先问过滤器，可能存在时再在索引中二分出唯一可能包含该 key 的块，读这一个块。
+ * <p>
+ * 数据块：每条为 类型(1) varint keyLen key [varint valueLen value]，删除标记没有 value，块末尾是块内容的 CRC32C(4)。
+ * 索引块：varint 最小 key 长度 最小 key，块数(4)，每块为 varint keyLen 块内最大 key 偏移(8) 长度(4)，末尾是 CRC32C(4)。
+ * 过滤器块：{@link BloomFilter} 的序列化内容，末尾是 CRC32C(4)；不建过滤器时长度为 0。
+ * 文件尾：过滤器块偏移(8) 过滤器块长度(4) 索引块偏移(8) 索引块长度(4) 记录数(8) 版本(4) MAGIC(4)。
+ * 版本 1 的文件没有过滤器块，文件尾少前 12 字节
+ */
+public class SSTable implements Closeable {
+
+    public static final String SUFFIX = ".sst";
+
+    /**
+     * 数据块达到该大小后结束，单条记录超过时整条放进一个块
+     */
+    public static final int DEFAULT_BLOCK_BYTES = 4096;
+
+    private static final int MAGIC = 0x455A5353;
+    private static final int VERSION = 2;
+    private static final int FOOTER_SIZE = 40;
+    private static final int FOOTER_SIZE_V1 = 28;
+    private static final int CRC_SIZE = 4;
+
+    private static final byte TYPE_PUT = 0;
+    private static final byte TYPE_DELETE = 1;
+
+    @Getter
+    private final File file;
+    private final FileChannel channel;
+    @Getter
+    private final String firstKey;
+    private final String[] lastKeys;
+    private final long[] offsets;
+    private final int[] sizes;
+    @Getter
+    private final long entryCount;
+    /**
+     * 没有过滤器时为 null
+     */
+    private final BloomFilter filter;
+    /**
+     * 引用计数：LSMTree 的各层持有一个，读者读文件期间再持有一个，归零时关闭文件
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+    /**
+     * 已被合并替换，最后一个引用释放时删除文件
+     */
+    private volatile boolean obsolete;
+
+    private SSTable(File file, FileChannel channel, String firstKey, String[] lastKeys, long[] offsets, int[] sizes,
+                    long entryCount, BloomFilter filter) {
+        this.file = file;
+        this.channel = channel;
+        this.firstKey = firstKey;
+        this.lastKeys = lastKeys;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.entryCount = entryCount;
+        this.filter = filter;
+    }
+
+    /**
+     * 按顺序写出一个有序表：先写临时文件、刷盘后原子改名，再打开返回
+     *
+     * @param entries    按 key 严格升序，value 为 null 表示删除标记
+     * @param bitsPerKey 布隆过滤器每个 key 的位数，0 表示不建过滤器
+     */
+    public static SSTable write(File target, Iterator<? extends Map.Entry<String, String>> entries, int blockBytes,
+                                int bitsPerKey) throws IOException {
+        Path tmp = Paths.get(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            BlockWriter writer = new BlockWriter(out, blockBytes, bitsPerKey);
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            writer.finish();
+            out.getFD().sync();
+        }
+        Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(target);
+    }
+
+    /**
+     * 打开有序表，读出并校验文件尾、过滤器块和索引块
+     */
+    public static SSTable open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_SIZE_V1) {
+                throw new IOException("sstable " + file + " is too short");
+            }
+            ByteBuffer tail = readFully(channel, size - 8, 8);
+            int version = tail.getInt();
+            if (tail.getInt() != MAGIC || version != VERSION && version != 1) {
+                throw new IOException("sstable " + file + " has a bad footer");
+            }
+            int footerSize = version == 1 ? FOOTER_SIZE_V1 : FOOTER_SIZE;
+            ByteBuffer footer = readFully(channel, size - footerSize, footerSize);
+            long filterOffset = version == 1 ? 0 : footer.getLong();
+            int filterSize = version == 1 ? 0 : footer.getInt();
+            long indexOffset = footer.getLong();
+            int indexSize = footer.getInt();
+            long entryCount = footer.getLong();
+            if (indexOffset < 0 || indexSize < CRC_SIZE || indexOffset + indexSize > size - footerSize
+                    || filterSize < 0 || filterOffset < 0 || filterOffset + filterSize > indexOffset) {
+                throw new IOException("sstable " + file + " has a bad footer");
+            }
+            BloomFilter filter = null;
+            if (filterSize > 0) {
+                filter = BloomFilter.decode(readBlock(channel, filterOffset, filterSize, file), 0, filterSize - CRC_SIZE);
+            }
+            ByteBuffer index = readBlock(channel, indexOffset, indexSize, file);
+            int p = 0;
+            int firstLen = RecordCodec.readVarInt(index, p);
+            p += RecordCodec.varIntSize(firstLen);
+            String firstKey = firstLen == 0 && entryCount == 0 ? null : decodeString(index, p, firstLen);
+            p += firstLen;
+            int blocks = index.getInt(p);
+            p += 4;
+            String[] lastKeys = new String[blocks];
+            long[] offsets = new long[blocks];
+            int[] sizes = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                int keyLen = RecordCodec.readVarInt(index, p);
+                p += RecordCodec.varIntSize(keyLen);
+                lastKeys[i] = decodeString(index, p, keyLen);
+                p += keyLen;
+                offsets[i] = index.getLong(p);
+                sizes[i] = index.getInt(p + 8);
+                p += 12;
+            }
+            return new SSTable(file, channel, firstKey, lastKeys, offsets, sizes, entryCount, filter);
+        } catch (Throwable t) {
+            channel.close();
+            throw t;
+        }
+    }
+
+    /**
+     * 只查内存中的过滤器，不读文件
+     *
+     * @return false 时表中一定没有该 key
+     */
+    public boolean mightContain(String key) {
+        return filter == null || filter.mightContain(key);
+    }
+
+    /**
+     * 查找一个 key，最多读一个数据块；不先查过滤器
+     *
+     * @return 找到时返回记录，value 为 null 表示已删除；表中没有该 key 时返回 null
+     */
+    public Map.Entry<String, String> get(String key) throws IOException {
+        int block = findBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer data = readBlock(channel, offsets[block], sizes[block], file);
+        int p = 0;
+        int end = data.limit() - CRC_SIZE;
+        while (p < end) {
+            byte type = data.get(p++);
+            int keyLen = RecordCodec.readVarInt(data, p);
+            p += RecordCodec.varIntSize(keyLen);
+            int cmp = compare(data, p, keyLen, key);
+            p += keyLen;
+            if (type == TYPE_DELETE) {
+                if (cmp == 0) {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, null);
+                }
+            } else {
+                int valueLen = RecordCodec.readVarInt(data, p);
+                p += RecordCodec.varIntSize(valueLen);
+                if (cmp == 0) {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, decodeString(data, p, valueLen));
+                }
+                p += valueLen;
+            }
+            if (cmp > 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按 key 升序逐块读出全部记录，删除标记的 value 为 null
+     */
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+            private int block;
+            private final List<Map.Entry<String, String>> entries = new ArrayList<>();
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == entries.size() && block < lastKeys.length) {
+                    entries.clear();
+                    next = 0;
+                    try {
+                        decodeBlock(readBlock(channel, offsets[block], sizes[block], file), entries);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    block++;
+                }
+                return next < entries.size();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entries.get(next++);
+            }
+        };
+    }
+
+    public String getLastKey() {
+        return lastKeys.length == 0 ? null : lastKeys[lastKeys.length - 1];
+    }
+
+    public int getBlockCount() {
+        return lastKeys.length;
+    }
+
+    public int getFilterBytes() {
+        return filter == null ? 0 : filter.sizeBytes();
+    }
+
+    public long sizeBytes() {
+        return file.length();
+    }
+
+    /**
+     * 读文件前加一个引用
+     *
+     * @return 表已经释放时返回 false，调用方应改用更新的各层快照
+     */
+    public boolean acquire() {
+        int n;
+        do {
+            n = refs.get();
+            if (n <= 0) {
+                return false;
+            }
+        } while (!refs.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时关闭文件，已被替换的表同时删除文件
+     */
+    public void release() throws IOException {
+        if (refs.decrementAndGet() == 0) {
+            channel.close();
+            if (obsolete) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * 标记为已被合并替换，之后由 {@link #release()} 删除文件
+     */
+    public void markObsolete() {
+        obsolete = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return 块内最大 key 不小于 key 的第一个块；key 大于全表最大 key 时返回 -1
+     */
+    private int findBlock(String key) {
+        int lo = 0;
+        int hi = lastKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lastKeys[mid].compareTo(key) >= 0) {
+                found = mid;
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return found;
+    }
+
+    private static void decodeBlock(ByteBuffer data, List<Map.Entry<String, String>> out) {
+        int p = 0;
+        int end = data.limit() - CRC_SIZE;
+        while (p < end) {
+            byte type = data.get(p++);
+            int keyLen = RecordCodec.readVarInt(data, p);
+            p += RecordCodec.varIntSize(keyLen);
+            String key = decodeString(data, p, keyLen);
+            p += keyLen;
+            String value = null;
+            if (type != TYPE_DELETE) {
+                int valueLen = RecordCodec.readVarInt(data, p);
+                p += RecordCodec.varIntSize(valueLen);
+                value = decodeString(data, p, valueLen);
+                p += valueLen;
+            }
+            out.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        }
+    }
+
+    /**
+     * 比较块中的 UTF-8 key 与目标 key，顺序与 String.compareTo 一致
+     */
+    private static int compare(ByteBuffer data, int p, int len, String key) {
+        return decodeString(data, p, len).compareTo(key);
+    }
+
+    private static String decodeString(ByteBuffer data, int p, int len) {
+        return new String(data.array(), data.arrayOffset() + p, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读出一个块并校验末尾的 CRC32C
+     */
+    private static ByteBuffer readBlock(FileChannel channel, long offset, int size, File file) throws IOException {
+        ByteBuffer block = readFully(channel, offset, size);
+        Checksum crc = Crc32c.create();
+        crc.update(block.array(), 0, size - CRC_SIZE);
+        if ((int) crc.getValue() != block.getInt(size - CRC_SIZE)) {
+            throw new IOException("sstable " + file + " has a corrupt block at " + offset);
+        }
+        return block;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of sstable at " + (offset + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 顺序写数据块，结束时写索引块和文件尾
+     */
+    private static class BlockWriter {
+        private final FileOutputStream out;
+        private final int blockBytes;
+        private final int bitsPerKey;
+        private long[] hashes = new long[1024];
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final byte[] scratch = new byte[5];
+        private String firstKey;
+        private String lastKey;
+        private long offset;
+        private int blocks;
+        private long entryCount;
+
+        BlockWriter(FileOutputStream out, int blockBytes, int bitsPerKey) {
+            this.out = out;
+            this.blockBytes = blockBytes;
+            this.bitsPerKey = bitsPerKey;
+        }
+
+        void add(String key, String value) throws IOException {
+            if (lastKey != null && key.compareTo(lastKey) <= 0) {
+                throw new IllegalArgumentException("keys must be strictly ascending: " + lastKey + ", " + key);
+            }
+            if (firstKey == null) {
+                firstKey = key;
+            }
+            block.write(value == null ? TYPE_DELETE : TYPE_PUT);
+            writeBytes(block, key.getBytes(StandardCharsets.UTF_8));
+            if (value != null) {
+                writeBytes(block, value.getBytes(StandardCharsets.UTF_8));
+            }
+            lastKey = key;
+            if (bitsPerKey > 0) {
+                if (entryCount == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                hashes[(int) entryCount] = BloomFilter.hash(key);
+            }
+            entryCount++;
+            if (block.size() >= blockBytes) {
+                finishBlock();
+            }
+        }
+
+        void finish() throws IOException {
+            if (block.size() > 0) {
+                finishBlock();
+            }
+            long filterOffset = offset;
+            int filterSize = 0;
+            if (bitsPerKey > 0 && entryCount > 0) {
+                ByteArrayOutputStream filterBlock = new ByteArrayOutputStream();
+                byte[] filter = BloomFilter.build(hashes, (int) entryCount, bitsPerKey).encode();
+                filterBlock.write(filter, 0, filter.length);
+                byte[] filterBytes = withCrc(filterBlock);
+                out.write(filterBytes);
+                filterSize = filterBytes.length;
+                offset += filterSize;
+            }
+            ByteArrayOutputStream indexBlock = new ByteArrayOutputStream();
+            writeBytes(indexBlock, firstKey == null ? new byte[0] : firstKey.getBytes(StandardCharsets.UTF_8));
+            indexBlock.write(ByteBuffer.allocate(4).putInt(blocks).array());
+            index.writeTo(indexBlock);
+            byte[] indexBytes = withCrc(indexBlock);
+            out.write(indexBytes);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(filterOffset).putInt(filterSize).putLong(offset).putInt(indexBytes.length).putLong(entryCount).putInt(VERSION).putInt(MAGIC);
+            out.write(footer.array());
+        }
+
+        private void finishBlock() throws IOException {
+            byte[] bytes = withCrc(block);
+            out.write(bytes);
+            writeBytes(index, lastKey.getBytes(StandardCharsets.UTF_8));
+            index.write(ByteBuffer.allocate(12).putLong(offset).putInt(bytes.length).array());
+            offset += bytes.length;
+            blocks++;
+            block.reset();
+        }
+
+        private byte[] withCrc(ByteArrayOutputStream content) {
+            byte[] bytes = new byte[content.size() + CRC_SIZE];
+            System.arraycopy(content.toByteArray(), 0, bytes, 0, content.size());
+            Checksum crc = Crc32c.create();
+            crc.update(bytes, 0, content.size());
+            ByteBuffer.wrap(bytes).putInt(content.size(), (int) crc.getValue());
+            return bytes;
+        }
+
+        private void writeBytes(ByteArrayOutputStream target, byte[] bytes) {
+            int n = RecordCodec.putVarInt(scratch, 0, bytes.length);
+            target.write(scratch, 0, n);
+            target.write(bytes, 0, bytes.length);
+        }
+    }
+}
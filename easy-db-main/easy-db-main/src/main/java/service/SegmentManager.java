@@ -0,0 +1,268 @@
+package service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分段数据日志：数据写入顺序号递增的段文件 data.&lt;顺序号&gt;.table，
+ * 活跃段达到大小阈值后封存并切换到新段，封存的段只读且保持可读。
+ * <p>
+ * 段号 = 顺序号 &lt;&lt; 8 | 代数。合并把若干段的存活记录改写到输入中最大顺序号的下一代
+ * data.&lt;顺序号&gt;.&lt;代数&gt;.table，段号顺序因此始终就是日志顺序。
+ * 每个封存段旁边有一个同名的 .hint 提示文件，见 {@link HintFile}
+ */
+public class SegmentManager implements Closeable {
+
+    public static final String PREFIX = "data.";
+    public static final String SUFFIX = ".table";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("data\\.(\\d+)(?:\\.(\\d+))?\\.table");
+    private static final int GENERATION_BITS = 8;
+    public static final int MAX_GENERATION = (1 << GENERATION_BITS) - 1;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SegmentManager.class);
+    private final String logFormat = "[SegmentManager][{}]: {}";
+
+    private final String dataDir;
+    private final StoreConfig config;
+
+    /**
+     * 段号到段文件，按段号有序，即日志顺序
+     */
+    private final ConcurrentNavigableMap<Integer, DataFile> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * 活跃段号，只由写线程修改
+     */
+    private volatile int activeId;
+
+    /**
+     * 在后台为刚封存的段生成提示文件，不占用写线程
+     */
+    private final ExecutorService hintWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SegmentManager(String dataDir, StoreConfig config) {
+        this.dataDir = dataDir;
+        this.config = config;
+    }
+
+    /**
+     * 打开目录下已有的段；旧版本的单文件 data.table 作为第一个段接入
+     */
+    public void open(String legacyFilePath) throws IOException {
+        Path legacy = Paths.get(legacyFilePath);
+        File[] files = new File(dataDir).listFiles();
+        boolean hasSegments = false;
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    int generation = matcher.group(2) == null ? 0 : Integer.parseInt(matcher.group(2));
+                    int id = segmentId(Integer.parseInt(matcher.group(1)), generation);
+                    segments.put(id, new DataFile(file.getPath(), config));
+                    hasSegments = true;
+                }
+            }
+        }
+        int firstId = segmentId(1, 0);
+        if (!hasSegments && Files.exists(legacy)) {
+            Path first = Paths.get(segmentPath(firstId));
+            Files.move(legacy, first);
+            segments.put(firstId, new DataFile(first.toString(), config));
+            LoggerUtil.info(LOGGER, logFormat, "open", "migrated " + legacy.getFileName() + " to " + first.getFileName());
+        }
+        if (segments.isEmpty()) {
+            segments.put(firstId, new DataFile(segmentPath(firstId), config));
+        }
+        activeId = segments.lastKey();
+        for (DataFile segment : segments.headMap(activeId).values()) {
+            segment.seal();
+        }
+    }
+
+    public static int segmentId(int ordinal, int generation) {
+        return ordinal << GENERATION_BITS | generation;
+    }
+
+    public static int ordinal(int segmentId) {
+        return segmentId >>> GENERATION_BITS;
+    }
+
+    public static int generation(int segmentId) {
+        return segmentId & MAX_GENERATION;
+    }
+
+    public String segmentPath(int id) {
+        String name = String.format("%010d", ordinal(id));
+        if (generation(id) > 0) {
+            name += "." + String.format("%03d", generation(id));
+        }
+        return dataDir + File.separator + PREFIX + name + SUFFIX;
+    }
+
+    /**
+     * 写线程调用：活跃段放不下这批数据时先切换到新段，再一次写入
+     *
+     * @param positions 输出每条记录数据的起始偏移
+     * @return 写入的段号
+     */
+    public int appendBatch(List<byte[]> payloads, long[] positions) throws IOException {
+        long bytes = 0;
+        for (byte[] payload : payloads) {
+            bytes += DataFile.LEN_SIZE + payload.length;
+        }
+        DataFile active = segments.get(activeId);
+        if (active.size() > 0 && active.tail() + bytes > config.getSegmentBytes()) {
+            active = roll();
+        }
+        long[] written = active.appendBatch(payloads);
+        System.arraycopy(written, 0, positions, 0, written.length);
+        return activeId;
+    }
+
+    /**
+     * 写线程调用：丢弃写入失败的一批记录，把段截回写入前的尾部
+     */
+    public void truncate(int segmentId, long tail) throws IOException {
+        DataFile segment = segments.get(segmentId);
+        if (segment != null && !segment.isSealed()) {
+            segment.truncate(tail);
+        }
+    }
+
+    /**
+     * 写线程调用：封存活跃段并切换到新段，截掉的尾部偏移不再被之后的记录使用
+     */
+    public void rollActive() throws IOException {
+        roll();
+    }
+
+    /**
+     * 封存活跃段（刷盘并关闭追加通道），新建下一个段作为活跃段
+     */
+    private DataFile roll() throws IOException {
+        int nextId = segmentId(ordinal(activeId) + 1, 0);
+        DataFile next = new DataFile(segmentPath(nextId), config);
+        int sealedId = activeId;
+        segments.get(sealedId).seal();
+        segments.put(nextId, next);
+        activeId = nextId;
+        writeHintAsync(sealedId);
+        LoggerUtil.debug(LOGGER, logFormat, "roll", "rolled to segment " + nextId);
+        return next;
+    }
+
+    /**
+     * 在后台为封存段生成提示文件；生成期间段被合并删除时，把提示文件一并删掉
+     */
+    public void writeHintAsync(int segmentId) {
+        DataFile segment = segments.get(segmentId);
+        if (segment == null || !segment.isSealed()) {
+            return;
+        }
+        hintWriter.execute(() -> {
+            try {
+                if (segments.get(segmentId) != segment) {
+                    return;
+                }
+                HintFile.write(segment);
+                if (segments.get(segmentId) != segment) {
+                    HintFile.delete(segment.getFilePath());
+                }
+            } catch (Throwable t) {
+                LoggerUtil.error(LOGGER, t, logFormat, "writeHint", "failed to write hint for segment " + segmentId);
+            }
+        });
+    }
+
+    public byte[] read(int segmentId, long pos, int len) throws IOException {
+        DataFile segment = segments.get(segmentId);
+        if (segment == null) {
+            throw new IOException("segment " + segmentId + " does not exist");
+        }
+        return segment.read(pos, len);
+    }
+
+    public DataFile get(int segmentId) {
+        return segments.get(segmentId);
+    }
+
+    /**
+     * 合并输出使用的下一个段号：同一顺序号下的下一代，代数用尽时返回 -1
+     */
+    public int nextGeneration(int ordinal) {
+        Integer last = segments.floorKey(segmentId(ordinal, MAX_GENERATION));
+        int generation = last != null && ordinal(last) == ordinal ? generation(last) + 1 : 1;
+        return generation > MAX_GENERATION ? -1 : segmentId(ordinal, generation);
+    }
+
+    /**
+     * 接入一个已写完并封存的段（合并输出）
+     */
+    public void register(int segmentId, DataFile segment) {
+        segments.put(segmentId, segment);
+    }
+
+    /**
+     * 移除、关闭并删除一个封存段
+     */
+    public void remove(int segmentId) throws IOException {
+        DataFile segment = segments.remove(segmentId);
+        if (segment != null) {
+            segment.close();
+            HintFile.delete(segment.getFilePath());
+            Files.deleteIfExists(Paths.get(segment.getFilePath()));
+        }
+    }
+
+    public void force() throws IOException {
+        segments.get(activeId).force(false);
+    }
+
+    public int getActiveId() {
+        return activeId;
+    }
+
+    public DataFile getActive() {
+        return segments.get(activeId);
+    }
+
+    /**
+     * 所有段，按段号（日志顺序）排列
+     */
+    public ConcurrentNavigableMap<Integer, DataFile> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public void close() throws IOException {
+        hintWriter.shutdown();
+        try {
+            hintWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DataFile segment : segments.values()) {
+            segment.close();
+        }
+    }
+}
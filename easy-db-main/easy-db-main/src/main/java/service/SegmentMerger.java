@@ -0,0 +1,334 @@
+package service;
+
+import lombok.Getter;
+import model.command.CommandPos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+import utils.RecordCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台合并：可回收比例超过阈值的封存段，只把仍被索引引用的记录复制到新段，
+ * 再逐条 CAS 替换索引中的位置，最后删除旧段。复制阶段不持有索引锁，不阻塞读写
+ */
+public class SegmentMerger implements Closeable {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SegmentMerger.class);
+    private final String logFormat = "[SegmentMerger][{}]: {}";
+
+    /**
+     * 每批检查/替换的记录数
+     */
+    private static final int SWAP_BATCH = 1024;
+
+    private final SegmentManager segments;
+    private final StoreConfig config;
+    private final IndexAccess index;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong segmentsMerged = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong totalMergeMillis = new AtomicLong();
+    private volatile long lastMergeMillis;
+
+    public SegmentMerger(SegmentManager segments, StoreConfig config, IndexAccess index) {
+        this.segments = segments;
+        this.config = config;
+        this.index = index;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.isMergeEnabled()) {
+            scheduler.scheduleWithFixedDelay(this::mergeQuietly, config.getMergeIntervalMs(),
+                    config.getMergeIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void mergeQuietly() {
+        try {
+            merge();
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "merge", "merge failed");
+        }
+    }
+
+    /**
+     * 立即在合并线程上执行一轮合并并等待结束
+     */
+    public void mergeNow() throws Exception {
+        scheduler.submit(() -> {
+            merge();
+            return null;
+        }).get();
+    }
+
+    private void merge() throws IOException {
+        List<Integer> inputs = new ArrayList<>();
+        for (Map.Entry<Integer, DataFile> entry : segments.getSegments().entrySet()) {
+            DataFile segment = entry.getValue();
+            if (segment.isSealed() && segment.deadRatio() >= config.getMergeDeadRatio()) {
+                inputs.add(entry.getKey());
+            }
+        }
+        if (inputs.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int ordinal = SegmentManager.ordinal(inputs.get(inputs.size() - 1));
+        int oldest = segments.getSegments().firstKey();
+        Output output = new Output(ordinal);
+        long inputBytes = 0;
+        try {
+            for (int segmentId : inputs) {
+                DataFile segment = segments.get(segmentId);
+                inputBytes += segment.tail();
+                copyLive(segmentId, segment, segmentId == oldest, output);
+            }
+            output.finish();
+            for (DataFile file : output.files.values()) {
+                HintFile.write(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            output.abort();
+            throw e;
+        }
+        long outputBytes = 0;
+        for (Map.Entry<Integer, DataFile> entry : output.files.entrySet()) {
+            segments.register(entry.getKey(), entry.getValue());
+            outputBytes += entry.getValue().tail();
+        }
+        // 先把索引切到新位置，再删除旧段
+        for (int i = 0; i < output.moves.size(); i += SWAP_BATCH) {
+            index.relocate(output.moves.subList(i, Math.min(i + SWAP_BATCH, output.moves.size())));
+        }
+        for (int segmentId : inputs) {
+            segments.remove(segmentId);
+        }
+        long cost = System.currentTimeMillis() - start;
+        merges.incrementAndGet();
+        segmentsMerged.addAndGet(inputs.size());
+        reclaimedBytes.addAndGet(inputBytes - outputBytes);
+        totalMergeMillis.addAndGet(cost);
+        lastMergeMillis = cost;
+        LoggerUtil.info(LOGGER, logFormat, "merge", "merged " + inputs.size() + " segments, reclaimed "
+                + (inputBytes - outputBytes) + " bytes in " + cost + "ms");
+    }
+
+    /**
+     * 复制一个段中的存活记录。墓碑只在本段是最老的段时才能丢弃，否则更老的段中的旧值会在重启时复活；
+     * 已过期的带过期时间的记录同理，改写成一条短小的墓碑保留下来，丢掉的只是值
+     */
+    private void copyLive(int segmentId, DataFile segment, boolean oldest, Output output) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<CommandPos> positions = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        segment.scan((pos, len, record) -> {
+            keys.add(RecordCodec.readKey(record));
+            positions.add(new CommandPos(segmentId, pos, len));
+            records.add(record.array());
+            if (keys.size() >= SWAP_BATCH) {
+                copyBatch(keys, positions, records, oldest, output);
+            }
+        });
+        copyBatch(keys, positions, records, oldest, output);
+    }
+
+    private void copyBatch(List<String> keys, List<CommandPos> positions, List<byte[]> records,
+                           boolean oldest, Output output) throws IOException {
+        boolean[] live = index.liveMask(keys, positions);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] record = records.get(i);
+            boolean tombstone = RecordCodec.readType(ByteBuffer.wrap(record)) == RecordCodec.TYPE_RM;
+            if (!live[i] && RecordCodec.isExpired(RecordCodec.readExpireAt(ByteBuffer.wrap(record)), now)) {
+                record = RecordCodec.encodeRm(keys.get(i));
+                tombstone = true;
+            }
+            if (live[i]) {
+                output.add(keys.get(i), positions.get(i), record, false);
+            } else if (tombstone && !oldest && !index.contains(keys.get(i))) {
+                output.add(keys.get(i), positions.get(i), record, true);
+            }
+        }
+        keys.clear();
+        positions.clear();
+        records.clear();
+    }
+
+    public MergeStats getStats() {
+        return new MergeStats(merges.get(), segmentsMerged.get(), reclaimedBytes.get(),
+                totalMergeMillis.get(), lastMergeMillis);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 合并输出：写满一个段大小后换到同一顺序号的下一代
+     */
+    private class Output {
+        private final int ordinal;
+        private final Map<Integer, DataFile> files = new TreeMap<>();
+        private final List<Relocation> moves = new ArrayList<>();
+        private final List<byte[]> pending = new ArrayList<>();
+        private final List<Relocation> pendingMoves = new ArrayList<>();
+        private int currentId = -1;
+        private DataFile current;
+
+        Output(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        void add(String key, CommandPos from, byte[] record, boolean tombstone) throws IOException {
+            if (current == null || current.tail() + DataFile.LEN_SIZE + record.length > config.getSegmentBytes()) {
+                flush();
+                next();
+            }
+            pending.add(record);
+            pendingMoves.add(new Relocation(key, from, tombstone));
+            if (pending.size() >= SWAP_BATCH) {
+                flush();
+            }
+        }
+
+        private void next() throws IOException {
+            if (current != null) {
+                current.seal();
+            }
+            currentId = currentId < 0 ? segments.nextGeneration(ordinal) : currentId + 1;
+            if (currentId < 0 || SegmentManager.generation(currentId) == 0) {
+                throw new IOException("no generation left for segment ordinal " + ordinal);
+            }
+            current = new DataFile(segments.segmentPath(currentId), config);
+            files.put(currentId, current);
+        }
+
+        private void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long[] written = current.appendBatch(pending);
+            for (int i = 0; i < written.length; i++) {
+                Relocation move = pendingMoves.get(i);
+                // 过期记录改写成的墓碑比原记录短，长度取实际写入的记录
+                move.to = new CommandPos(currentId, written[i], pending.get(i).length);
+                if (move.tombstone) {
+                    // 保留下来的墓碑不计入可回收字节，避免同一段被反复合并
+                    current.addLive(DataFile.LEN_SIZE + move.to.getLen());
+                } else {
+                    moves.add(move);
+                }
+            }
+            pending.clear();
+            pendingMoves.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+            if (current != null) {
+                current.seal();
+            }
+        }
+
+        void abort() {
+            for (DataFile file : files.values()) {
+                try {
+                    file.close();
+                    HintFile.delete(file.getFilePath());
+                    Files.deleteIfExists(Paths.get(file.getFilePath()));
+                } catch (IOException e) {
+                    LoggerUtil.error(LOGGER, e, logFormat, "abort", "failed to delete merge output " + file.getFilePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * 一条存活记录从旧位置搬到新位置
+     */
+    @Getter
+    public static class Relocation {
+        private final String key;
+        private final CommandPos from;
+        private final boolean tombstone;
+        private CommandPos to;
+
+        Relocation(String key, CommandPos from, boolean tombstone) {
+            this.key = key;
+            this.from = from;
+            this.tombstone = tombstone;
+        }
+    }
+
+    /**
+     * 合并所需的索引操作，由存储实现
+     */
+    public interface IndexAccess {
+        /**
+         * 每条记录是否仍是索引中该 key 的当前位置
+         */
+        boolean[] liveMask(List<String> keys, List<CommandPos> positions);
+
+        boolean contains(String key);
+
+        /**
+         * 索引仍指向旧位置时替换为新位置，并更新新段的存活/可回收字节
+         */
+        void relocate(List<Relocation> moves);
+    }
+
+    /**
+     * 合并统计快照
+     */
+    @Getter
+    public static class MergeStats {
+        private final long merges;
+        private final long segmentsMerged;
+        private final long reclaimedBytes;
+        private final long totalMergeMillis;
+        private final long lastMergeMillis;
+
+        public MergeStats(long merges, long segmentsMerged, long reclaimedBytes, long totalMergeMillis, long lastMergeMillis) {
+            this.merges = merges;
+            this.segmentsMerged = segmentsMerged;
+            this.reclaimedBytes = reclaimedBytes;
+            this.totalMergeMillis = totalMergeMillis;
+            this.lastMergeMillis = lastMergeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "MergeStats{" +
+                    "merges=" + merges +
+                    ", segmentsMerged=" + segmentsMerged +
+                    ", reclaimedBytes=" + reclaimedBytes +
+                    ", totalMergeMillis=" + totalMergeMillis +
+                    ", lastMergeMillis=" + lastMergeMillis +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package service;
+
+import model.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 key 的哈希把请求路由到 N 个互相独立的 NormalStore 分片，
+ * 每个分片有自己的目录 shard-XX、段文件、索引、锁和写线程，不同分片的写入互不等待。
+ * 分片数写在数据目录的 SHARDS 文件中，重新打开时沿用该值，否则 key 会被路由到错误的分片
+ */
+public class ShardedStore implements Store {
+
+    private static final String SHARDS_FILE = "SHARDS";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ShardedStore.class);
+    private final String logFormat = "[ShardedStore][{}]: {}";
+
+    private final NormalStore[] shards;
+
+    public ShardedStore(String dataDir) {
+        this(dataDir, Runtime.getRuntime().availableProcessors(), new StoreConfig());
+    }
+
+    /**
+     * @param shardCount 分片数，超过 CPU 核数时按核数处理
+     */
+    public ShardedStore(String dataDir, int shardCount, StoreConfig config) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shard count must be positive: " + shardCount);
+        }
+        if (shardCount > cores) {
+            LoggerUtil.info(LOGGER, logFormat, "ShardedStore", "shard count " + shardCount + " exceeds " + cores + " cores, using " + cores);
+            shardCount = cores;
+        }
+        try {
+            shardCount = checkShardCount(dataDir, shardCount);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // 内存预算是整个 Store 的上限，每个分片各自淘汰，只能拿到其中一份
+        StoreConfig shardConfig = config.copy();
+        if (config.getMaxMemoryBytes() > 0) {
+            shardConfig.setMaxMemoryBytes(Math.max(1, config.getMaxMemoryBytes() / shardCount));
+        }
+        this.shards = new NormalStore[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new NormalStore(dataDir + File.separator + String.format("shard-%02d", i), shardConfig);
+        }
+    }
+
+    /**
+     * 新目录记下分片数；已有目录沿用原来的分片数，与请求的不同时以原来的为准
+     */
+    private int checkShardCount(String dataDir, int shardCount) throws IOException {
+        Path path = Paths.get(dataDir, SHARDS_FILE);
+        if (Files.exists(path)) {
+            int existing = Integer.parseInt(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim());
+            if (existing != shardCount) {
+                LoggerUtil.info(LOGGER, logFormat, "checkShardCount",
+                        dataDir + " was created with " + existing + " shards, ignoring requested " + shardCount);
+            }
+            return existing;
+        }
+        Files.createDirectories(path.getParent());
+        Files.write(path, String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8));
+        return shardCount;
+    }
+
+    /**
+     * key 所在的分片
+     */
+    public NormalStore shardFor(String key) {
+        int h = key.hashCode();
+        // 打散高位，避免只有低位不同的 key 挤在同一个分片
+        h ^= h >>> 16;
+        return shards[Math.floorMod(h, shards.length)];
+    }
+
+    public List<NormalStore> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    @Override
+    public void set(String key, String value) {
+        shardFor(key).set(key, value);
+    }
+
+    @Override
+    public void set(String key, String value, long ttlMillis) {
+        shardFor(key).set(key, value, ttlMillis);
+    }
+
+    @Override
+    public String get(String key) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * 按分片拆开，每个分片各自批量读取
+     */
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        Map<NormalStore, List<String>> perShard = new LinkedHashMap<>();
+        for (String key : keys) {
+            perShard.computeIfAbsent(shardFor(key), s -> new ArrayList<>()).add(key);
+        }
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<NormalStore, List<String>> entry : perShard.entrySet()) {
+            result.putAll(entry.getKey().multiGet(entry.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public void rm(String key) {
+        shardFor(key).rm(key);
+    }
+
+    /**
+     * 按分片拆开后各自写入：同一分片内的写入是原子的，跨分片的批量写入不保证整体原子
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        Map<NormalStore, WriteBatch> perShard = new LinkedHashMap<>();
+        for (Command command : batch.getCommands()) {
+            WriteBatch shardBatch = perShard.computeIfAbsent(shardFor(command.getKey()), s -> new WriteBatch());
+            shardBatch.getCommands().add(command);
+        }
+        for (Map.Entry<NormalStore, WriteBatch> entry : perShard.entrySet()) {
+            entry.getKey().write(entry.getValue());
+        }
+    }
+
+    /**
+     * @return 各分片淘汰统计的合计；未开启内存预算时返回 null
+     */
+    public MemoryLimiter.EvictionStats getEvictionStats() {
+        MemoryLimiter.EvictionStats first = shards[0].getEvictionStats();
+        if (first == null) {
+            return null;
+        }
+        long maxBytes = 0;
+        long usedBytes = 0;
+        int keys = 0;
+        long evictions = 0;
+        for (NormalStore shard : shards) {
+            MemoryLimiter.EvictionStats stats = shard.getEvictionStats();
+            maxBytes += stats.getMaxBytes();
+            usedBytes += stats.getUsedBytes();
+            keys += stats.getKeys();
+            evictions += stats.getEvictions();
+        }
+        return new MemoryLimiter.EvictionStats(first.getPolicy(), maxBytes, usedBytes, keys, evictions);
+    }
+
+    /**
+     * 关闭所有分片，某个分片关闭失败不影响其余分片
+     */
+    @Override
+    public void close() throws IOException {
+        List<IOException> errors = new ArrayList<>();
+        for (NormalStore shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        }
+        if (!errors.isEmpty()) {
+            IOException e = errors.get(0);
+            for (int i = 1; i < errors.size(); i++) {
+                e.addSuppressed(errors.get(i));
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按大小分档合并的选取策略：所有表都留在第 0 层，每张表是一段完整的有序数据，
+ * 大小相近的若干张表合成一张更大的表。每条记录大约每变大 minMergeWidth 倍才被重写一次，
+ * 写放大比分层合并小，代价是查询要逐张检查的表更多、被覆盖的旧值留得更久。
+ * <p>
+ * 第 0 层的表靠先后顺序区分新旧，只有新旧相邻的一段表合并后放回原位才不改变覆盖关系，
+ * 所以只把相邻且大小相近的表分到同一档：从新到旧扫描，大小在当前档平均大小的 [bucketLow, bucketHigh] 倍之间、
+ * 或与当前档的表都小于 minTableBytes 时并入当前档，否则另起一档。
+ * 表数不少于 minMergeWidth 的档中选平均大小最小的合并，一次最多取 maxMergeWidth 张
+ */
+public class SizeTieredCompaction implements CompactionStrategy {
+
+    private final LSMTreeConfig config;
+
+    public SizeTieredCompaction(LSMTreeConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public CompactionTask pick(List<List<SSTable>> levels) {
+        List<List<SSTable>> buckets = buckets(levels.get(0));
+        List<SSTable> best = null;
+        double bestAverage = Double.MAX_VALUE;
+        for (List<SSTable> bucket : buckets) {
+            if (bucket.size() < Math.max(2, config.getTieredMinMergeWidth())) {
+                continue;
+            }
+            List<SSTable> inputs = bucket.size() > config.getTieredMaxMergeWidth()
+                    ? bucket.subList(0, Math.max(2, config.getTieredMaxMergeWidth())) : bucket;
+            double average = (double) LeveledCompaction.levelBytes(inputs) / inputs.size();
+            if (average < bestAverage) {
+                best = inputs;
+                bestAverage = average;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return new CompactionTask(0, 0, new ArrayList<>(best), Long.MAX_VALUE);
+    }
+
+    /**
+     * 把从新到旧排列的表切成若干段新旧相邻、大小相近的档
+     */
+    List<List<SSTable>> buckets(List<SSTable> tables) {
+        List<List<SSTable>> buckets = new ArrayList<>();
+        List<SSTable> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (SSTable table : tables) {
+            long size = table.sizeBytes();
+            if (!current.isEmpty() && !fits(size, currentBytes, current.size())) {
+                buckets.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(table);
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            buckets.add(current);
+        }
+        return buckets;
+    }
+
+    private boolean fits(long size, long bucketBytes, int bucketSize) {
+        double average = (double) bucketBytes / bucketSize;
+        if (size < config.getTieredMinTableBytes() && average < config.getTieredMinTableBytes()) {
+            return true;
+        }
+        return size >= average * config.getTieredBucketLow() && size <= average * config.getTieredBucketHigh();
+    }
+}
@@ -8,11 +8,30 @@
 package service;
 
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
 
 public interface Store extends Closeable {
     void set(String key, String value);
 
+    /**
+     * 写入一个 ttlMillis 毫秒后过期的值，过期后读不到；之后再次 set 会覆盖过期时间
+     */
+    void set(String key, String value, long ttlMillis);
+
     String get(String key);
 
+    /**
+     * 一次读取多个 key
+     *
+     * @return 存在的 key 到值的映射，不存在的 key 不出现在结果中
+     */
+    Map<String, String> multiGet(Collection<String> keys);
+
     void rm(String key);
+
+    /**
+     * 原子地应用一组写入
+     */
+    void write(WriteBatch batch);
 }
@@ -0,0 +1,113 @@
+package service;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * NormalStore 的可调参数，默认值即为无参构造时的行为
+ */
+@Setter
+@Getter
+public class StoreConfig implements Cloneable {
+    /**
+     * 刷盘策略
+     */
+    private DurabilityTypeEnum durability = DurabilityTypeEnum.SYNC_EVERY_N_MS;
+
+    /**
+     * SYNC_EVERY_N_MS 模式下的刷盘间隔
+     */
+    private long syncIntervalMs = 1000;
+
+    /**
+     * 组提交单批最多合并的字节数
+     */
+    private int maxBatchBytes = 4 * 1024 * 1024;
+
+    /**
+     * 活跃段达到该大小后封存并切换到新段
+     */
+    private long segmentBytes = 64L * 1024 * 1024;
+
+    /**
+     * 是否用内存映射读取数据文件已写满的部分
+     */
+    private boolean mmapEnabled = true;
+
+    /**
+     * 内存映射的分块大小
+     */
+    private int mmapChunkBytes = 8 * 1024 * 1024;
+
+    /**
+     * 映射区域上限，超出部分（特别大的文件）回退到定位读
+     */
+    private long mmapMaxBytes = 16L * 1024 * 1024 * 1024;
+
+    /**
+     * 是否在后台合并封存段
+     */
+    private boolean mergeEnabled = true;
+
+    /**
+     * 封存段中可回收字节占比达到该值时参与合并
+     */
+    private double mergeDeadRatio = 0.5;
+
+    /**
+     * 检查是否需要合并的间隔
+     */
+    private long mergeIntervalMs = 10_000;
+
+    /**
+     * 启动重建索引时的解码线程数
+     */
+    private int reloadThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 索引实现，key 很多时用 OFF_HEAP 减少堆占用
+     */
+    private IndexTypeEnum indexType = IndexTypeEnum.HASH_MAP;
+
+    /**
+     * 解码值缓存的字节预算，0 表示不开启
+     */
+    private long valueCacheBytes = 0;
+
+    /**
+     * 后台写索引检查点的间隔，0 表示只在关闭时写
+     */
+    private long checkpointIntervalMs = 60_000;
+
+    /**
+     * 过期时间轮的刻度，也是后台清理过期 key 的间隔
+     */
+    private long ttlTickMs = 100;
+
+    /**
+     * 缓存模式的内存预算（按 key、记录和每个 key 的固定开销估算），超出后写入前先淘汰 key；0 表示不限制。
+     * ShardedStore 中是所有分片合计的预算，平分给各分片
+     */
+    private long maxMemoryBytes = 0;
+
+    /**
+     * 超出内存预算时的淘汰策略
+     */
+    private EvictionPolicyTypeEnum evictionPolicy = EvictionPolicyTypeEnum.LRU;
+
+    /**
+     * 每挑一个淘汰对象抽样的 key 数，越大越接近精确的 LRU / LFU
+     */
+    private int evictionSamples = 5;
+
+    /**
+     * 所有参数都是基本类型或枚举，浅拷贝即完整副本
+     */
+    public StoreConfig copy() {
+        try {
+            return (StoreConfig) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
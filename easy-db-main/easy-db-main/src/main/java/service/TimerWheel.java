@@ -0,0 +1,143 @@
+package service;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分层时间轮，记录 key 的过期时刻。
+ * <p>
+ * 时间按 tickMs 切成刻度，第 0 层 256 个槽每槽一刻，往上每层 64 个槽、每槽覆盖下一层一整圈。
+ * 登记只按距今的刻数算出层和槽，O(1)；时间推进到高层某个槽的起点时把其中的定时器下放到低层，
+ * 每个定时器最多下放层数次。超出最高层一圈的定时器先放在最高层，到时再重新登记。
+ * <p>
+ * 不支持取消：key 被覆盖或删除后旧定时器照常到期，由调用方核对过期时刻后忽略或按新的过期时刻重新登记，
+ * 调用方每个 key 只保留一个未到期的定时器，频繁重写的 key 不会堆积定时器
+ */
+public class TimerWheel {
+
+    private static final int[] LEVEL_BITS = {8, 6, 6, 6, 6};
+
+    private final long tickMs;
+    private final List<Timer>[][] slots;
+    private final int[] shifts;
+    /**
+     * 登记时已经到期的定时器，下次推进时返回
+     */
+    private List<Timer> due = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickMs, long now) {
+        this.tickMs = tickMs;
+        this.currentTick = now / tickMs;
+        this.slots = new List[LEVEL_BITS.length][];
+        this.shifts = new int[LEVEL_BITS.length];
+        int shift = 0;
+        for (int level = 0; level < LEVEL_BITS.length; level++) {
+            slots[level] = new List[1 << LEVEL_BITS[level]];
+            shifts[level] = shift;
+            shift += LEVEL_BITS[level];
+        }
+    }
+
+    /**
+     * 登记一个定时器，到期时刻向上取整到刻度
+     */
+    public synchronized void schedule(String key, long expireAt) {
+        Timer timer = new Timer(key, expireAt, (expireAt + tickMs - 1) / tickMs);
+        size++;
+        if (timer.tick <= currentTick) {
+            due.add(timer);
+        } else {
+            insert(timer);
+        }
+    }
+
+    /**
+     * 推进到 now，返回期间到期的定时器
+     */
+    public synchronized List<Timer> advance(long now) {
+        List<Timer> expired = due;
+        due = new ArrayList<>();
+        long target = now / tickMs;
+        while (currentTick < target) {
+            currentTick++;
+            // 第 0 层转完一圈时从第 1 层开始逐层下放，上一层的槽号回到 0 时继续下放更高一层
+            for (int level = 1; level < LEVEL_BITS.length; level++) {
+                if ((currentTick & ((1L << shifts[level]) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, expired);
+            }
+            List<Timer> slot = take(0, (int) (currentTick & (slots[0].length - 1)));
+            if (slot != null) {
+                expired.addAll(slot);
+            }
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    /**
+     * 尚未到期的定时器数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void cascade(int level, List<Timer> expired) {
+        List<Timer> slot = take(level, (int) ((currentTick >>> shifts[level]) & (slots[level].length - 1)));
+        if (slot == null) {
+            return;
+        }
+        for (Timer timer : slot) {
+            if (timer.tick <= currentTick) {
+                expired.add(timer);
+            } else {
+                insert(timer);
+            }
+        }
+    }
+
+    private void insert(Timer timer) {
+        long delta = timer.tick - currentTick;
+        int top = LEVEL_BITS.length - 1;
+        int level = 0;
+        while (level < top && delta >= 1L << (shifts[level] + LEVEL_BITS[level])) {
+            level++;
+        }
+        long tick = timer.tick;
+        if (level == top && delta >= 1L << (shifts[top] + LEVEL_BITS[top])) {
+            // 超出最高层一圈：放到最高层中最晚处理的槽，届时重新计算位置
+            tick = currentTick + ((long) (slots[top].length - 1) << shifts[top]);
+        }
+        int index = (int) ((tick >>> shifts[level]) & (slots[level].length - 1));
+        List<Timer> slot = slots[level][index];
+        if (slot == null) {
+            slot = slots[level][index] = new ArrayList<>();
+        }
+        slot.add(timer);
+    }
+
+    private List<Timer> take(int level, int index) {
+        List<Timer> slot = slots[level][index];
+        slots[level][index] = null;
+        return slot;
+    }
+
+    @Getter
+    public static class Timer {
+        private final String key;
+        private final long expireAt;
+        private final long tick;
+
+        Timer(String key, long expireAt, long tick) {
+            this.key = key;
+            this.expireAt = expireAt;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package service;
+
+import lombok.Getter;
+import model.command.CommandPos;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 按字节预算限制的解码值缓存，W-TinyLFU 淘汰：
+ * 新值先进入约占 1% 的窗口 LRU，挤出窗口后进入主区的试用段；主区超出预算时，
+ * 用频率草图比较刚进入试用段的候选者和试用段最久未用的受害者，频率低的一方被淘汰。
+ * 试用段中再次命中的值升入受保护段（主区的 80%）。
+ * <p>
+ * 每个缓存值都带着读到它时索引中的位置，位置与当前索引不一致即视为未命中，
+ * 所以并发的写入或合并不会让读到旧值。
+ * <p>
+ * 查找走并发哈希表，不加锁；命中只把节点放进按线程分条的有损读缓冲，
+ * 缓冲满时由抢到淘汰锁的线程批量重放到队列和频率草图上，抢不到的读直接返回。
+ * 队列、草图和各段字节数只在持有淘汰锁时修改
+ */
+public class ValueCache {
+
+    /**
+     * 估算每个缓存项除字符串内容外的对象开销
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final long windowMax;
+    private final long protectedMax;
+
+    /**
+     * 读缓冲的条数和每条的容量
+     */
+    private static final int READ_BUFFER_STRIPES = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+
+    private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedQueue = Node.sentinel();
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    public ValueCache(long maxBytes) {
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.maxBytes = maxBytes;
+        this.windowMax = Math.max(1, maxBytes / 100);
+        this.protectedMax = (maxBytes - windowMax) * 8 / 10;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maxBytes / 256)));
+    }
+
+    /**
+     * @param pos 索引中该 key 当前的位置
+     * @return 缓存的值；没有或已过期时返回 null
+     */
+    public String get(String key, CommandPos pos) {
+        Node node = map.get(key);
+        if (node == null || !node.pos.equals(pos)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1)];
+        if (!buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    public void put(String key, CommandPos pos, String value) {
+        long weight = ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+        if (weight > maxBytes) {
+            return;
+        }
+        Node node = new Node(key, pos, value, weight);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            sketch.increment(key.hashCode());
+            Node old = map.put(key, node);
+            if (old != null) {
+                unlink(old);
+            }
+            node.queue = window;
+            window.addLast(node);
+            windowBytes += weight;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 写线程每次写入都会调用，没缓存该 key 时不加锁
+     */
+    public void invalidate(String key) {
+        Node node = map.remove(key);
+        if (node != null) {
+            evictionLock.lock();
+            try {
+                unlink(node);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 持有淘汰锁时调用，把缓冲中的命中重放到草图和队列上；期间已被移出的节点只计频率
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(node -> {
+                sketch.increment(node.key.hashCode());
+                if (node.queue != null) {
+                    onHit(node);
+                }
+            });
+        }
+    }
+
+    private void onHit(Node node) {
+        if (node.queue == protectedQueue) {
+            node.remove();
+            protectedQueue.addLast(node);
+        } else if (node.queue == probation) {
+            node.remove();
+            probationBytes -= node.weight;
+            node.queue = protectedQueue;
+            protectedQueue.addLast(node);
+            protectedBytes += node.weight;
+            // 受保护段超限时把最久未用的降回试用段
+            while (protectedBytes > protectedMax && protectedQueue.next != protectedQueue) {
+                Node demoted = protectedQueue.next;
+                demoted.remove();
+                protectedBytes -= demoted.weight;
+                demoted.queue = probation;
+                probation.addLast(demoted);
+                probationBytes += demoted.weight;
+            }
+        } else {
+            node.remove();
+            window.addLast(node);
+        }
+    }
+
+    private void evict() {
+        while (windowBytes > windowMax && window.next != window) {
+            Node candidate = window.next;
+            candidate.remove();
+            windowBytes -= candidate.weight;
+            candidate.queue = probation;
+            probation.addLast(candidate);
+            probationBytes += candidate.weight;
+        }
+        while (windowBytes + probationBytes + protectedBytes > maxBytes) {
+            Node victim;
+            if (probation.next != probation) {
+                victim = probation.next;
+                Node candidate = probation.prev;
+                if (candidate != victim
+                        && sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                    victim = candidate;
+                }
+            } else if (protectedQueue.next != protectedQueue) {
+                victim = protectedQueue.next;
+            } else {
+                victim = window.next;
+            }
+            map.remove(victim.key, victim);
+            unlink(victim);
+            evictions++;
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.queue == null) {
+            return;
+        }
+        node.remove();
+        if (node.queue == window) {
+            windowBytes -= node.weight;
+        } else if (node.queue == probation) {
+            probationBytes -= node.weight;
+        } else {
+            protectedBytes -= node.weight;
+        }
+        node.queue = null;
+    }
+
+    public CacheStats getStats() {
+        evictionLock.lock();
+        try {
+            return new CacheStats(hits.sum(), misses.sum(), evictions, map.size(), windowBytes + probationBytes + protectedBytes);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 单条有损环形读缓冲：多个读线程用 CAS 占位写入，满了就丢弃这次记录；只由持有淘汰锁的线程读出
+     */
+    private static class ReadBuffer {
+        private static final int MASK = READ_BUFFER_SIZE - 1;
+
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /**
+         * @return 缓冲已满时返回 false，调用方应尝试重放
+         */
+        boolean offer(Node node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & MASK), node);
+            }
+            return true;
+        }
+
+        void drain(Consumer<Node> consumer) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node node = slots.get(index);
+                if (node == null) {
+                    // 占了位但还没写入，留到下次
+                    break;
+                }
+                slots.lazySet(index, null);
+                consumer.accept(node);
+            }
+            readCounter = head;
+        }
+    }
+
+    private static class Node {
+        private final String key;
+        private final CommandPos pos;
+        private final String value;
+        private final long weight;
+        private Node queue;
+        private Node prev;
+        private Node next;
+
+        Node(String key, CommandPos pos, String value, long weight) {
+            this.key = key;
+            this.pos = pos;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        static Node sentinel() {
+            Node node = new Node(null, null, null, 0);
+            node.prev = node;
+            node.next = node;
+            return node;
+        }
+
+        /**
+         * 以哨兵为表头的循环链表，表头之后是最久未用的一端
+         */
+        void addLast(Node node) {
+            node.prev = prev;
+            node.next = this;
+            prev.next = node;
+            prev = node;
+        }
+
+        void remove() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+    /**
+     * 4 行、每计数器 4 位的 Count-Min 草图，累计次数达到宽度的 10 倍时所有计数减半，使旧的热度逐渐衰减
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0x97CB3127L, 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int widthMask;
+        private final int rowLongs;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int w = Integer.highestOneBit(Math.max(16, width) - 1) << 1;
+            widthMask = w - 1;
+            rowLongs = w / 16;
+            table = new long[rowLongs * SEEDS.length];
+            sampleSize = 10 * w;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = index(hash, row);
+                int i = row * rowLongs + (counter >>> 4);
+                int shift = (counter & 15) << 2;
+                if (((table[i] >>> shift) & 0xF) < 15) {
+                    table[i] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = index(hash, row);
+                int shift = (counter & 15) << 2;
+                min = Math.min(min, (int) ((table[row * rowLongs + (counter >>> 4)] >>> shift) & 0xF));
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & widthMask;
+        }
+    }
+
+    /**
+     * 缓存统计快照
+     */
+    @Getter
+    public static class CacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final long bytes;
+
+        public CacheStats(long hits, long misses, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRate=" + String.format("%.3f", getHitRate()) +
+                    ", evictions=" + evictions +
+                    ", entries=" + entries +
+                    ", bytes=" + bytes +
+                    '}';
+        }
+    }
+}
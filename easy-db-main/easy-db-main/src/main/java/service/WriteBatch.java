@@ -0,0 +1,59 @@
+/*
+ *@Type WriteBatch.java
+ * @Desc 一组原子写入
+ * @version
+ */
+package service;
+
+import lombok.Getter;
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一组写入，交给 {@link Store#write} 后按加入的顺序应用，要么全部生效要么全部不生效，
+ * 并发的读要么看到整批写入之前的值，要么看到之后的值；同一个 key 出现多次时以最后一次为准
+ */
+@Getter
+public class WriteBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Command> commands = new ArrayList<>();
+
+    public WriteBatch set(String key, String value) {
+        commands.add(new SetCommand(key, value));
+        return this;
+    }
+
+    /**
+     * 写入一个 ttlMillis 毫秒后过期的值，过期时刻从加入批次时算起
+     */
+    public WriteBatch set(String key, String value, long ttlMillis) {
+        commands.add(new SetCommand(key, value, NormalStore.expireAt(ttlMillis)));
+        return this;
+    }
+
+    public WriteBatch rm(String key) {
+        commands.add(new RmCommand(key));
+        return this;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBatch{" +
+                "size=" + commands.size() +
+                '}';
+    }
+}
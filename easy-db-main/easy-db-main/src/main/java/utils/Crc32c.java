@@ -0,0 +1,84 @@
+package utils;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C（Castagnoli）校验，slicing-by-8 查表实现。
+ * 运行在 JDK9+ 时优先使用自带的 java.util.zip.CRC32C（有硬件加速）
+ */
+public final class Crc32c implements Checksum {
+
+    private static final int POLY = 0x82F63B78;
+    private static final int[][] TABLE = new int[8][256];
+    private static final Constructor<?> JDK_CRC32C;
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = TABLE[0][n];
+            for (int k = 1; k < 8; k++) {
+                c = TABLE[0][c & 0xFF] ^ (c >>> 8);
+                TABLE[k][n] = c;
+            }
+        }
+        Constructor<?> ctor = null;
+        try {
+            ctor = Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException ignored) {
+            // JDK8 没有 CRC32C，使用查表实现
+        }
+        JDK_CRC32C = ctor;
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    public static Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (Checksum) JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException ignored) {
+                // 退回查表实现
+            }
+        }
+        return new Crc32c();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            c ^= (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+            int hi = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+            c = TABLE[7][c & 0xFF] ^ TABLE[6][(c >>> 8) & 0xFF] ^ TABLE[5][(c >>> 16) & 0xFF] ^ TABLE[4][c >>> 24]
+                    ^ TABLE[3][hi & 0xFF] ^ TABLE[2][(hi >>> 8) & 0xFF] ^ TABLE[1][(hi >>> 16) & 0xFF] ^ TABLE[0][hi >>> 24];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = (c >>> 8) ^ TABLE[0][(c ^ b[off++]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
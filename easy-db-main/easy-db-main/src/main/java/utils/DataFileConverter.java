@@ -0,0 +1,121 @@
+package utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import model.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 把旧的 fastjson 格式数据文件一次性转换为二进制记录格式。
+ * <p>
+ * 旧格式为 int 长度 + JSON；旧版 rm 没有写长度前缀，遇到以 '{' 开头的位置按裸 JSON 对象解析
+ */
+public class DataFileConverter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataFileConverter.class);
+    private static final String logFormat = "[DataFileConverter][{}]: {}";
+    private static final String TMP_SUFFIX = ".converting";
+
+    /**
+     * @return 文件是旧格式并完成了转换时返回 true
+     */
+    public static boolean convertIfNeeded(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return false;
+        }
+        byte[] data = Files.readAllBytes(path);
+        if (RecordCodec.isFileHeader(data)) {
+            return false;
+        }
+        Path tmp = Paths.get(filePath + TMP_SUFFIX);
+        int converted = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, ByteBuffer.wrap(RecordCodec.fileHeader()));
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            int pos = 0;
+            while (pos < data.length) {
+                int start;
+                int end;
+                if (data[pos] == '{') {
+                    start = pos;
+                    end = jsonObjectEnd(data, pos);
+                } else if (pos + 4 <= data.length) {
+                    int len = buffer.getInt(pos);
+                    start = pos + 4;
+                    end = start + len;
+                    if (len <= 0 || end > data.length) {
+                        end = -1;
+                    }
+                } else {
+                    end = -1;
+                    start = pos;
+                }
+                if (end < 0) {
+                    LoggerUtil.info(LOGGER, logFormat, "convertIfNeeded",
+                            "dropping unreadable tail of " + (data.length - pos) + " bytes in " + filePath);
+                    break;
+                }
+                JSONObject json = JSON.parseObject(new String(data, start, end - start, StandardCharsets.UTF_8));
+                Command command = CommandUtil.jsonToCommand(json);
+                if (command != null) {
+                    byte[] record = RecordCodec.encode(command);
+                    ByteBuffer frame = ByteBuffer.allocate(4 + record.length);
+                    frame.putInt(record.length).put(record).flip();
+                    writeFully(out, frame);
+                    converted++;
+                }
+                pos = end;
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LoggerUtil.info(LOGGER, logFormat, "convertIfNeeded",
+                "converted " + converted + " json records in " + new File(filePath).getName());
+        return true;
+    }
+
+    /**
+     * @return 从 start 处 '{' 开始的 JSON 对象结束后的下一个位置，不完整时返回 -1
+     */
+    private static int jsonObjectEnd(byte[] data, int start) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < data.length; i++) {
+            byte b = data[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{') {
+                depth++;
+            } else if (b == '}' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package utils;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * 数据文件的二进制记录编解码。
+ * <p>
+ * 文件头：magic(4) + 格式版本(4)
+ * <p>
+ * 记录：version(1) + type(1) + varint keyLen + varint valueLen + key + value + crc32c(4)，
+ * crc 覆盖记录中它之前的所有字节。记录在文件里仍以 int 长度前缀分帧
+ * <p>
+ * 带过期时间的 set 记录，value 的前 8 字节是过期时刻（毫秒时间戳），之后才是值本身。
+ * <p>
+ * 批量记录的 key 为空，value 是依次排列的 [长度(4) + 普通记录]。外层 crc 覆盖整批，
+ * 崩溃时写了一半的批量记录整条作废；内层记录各自带 crc，索引直接指向内层记录
+ */
+public class RecordCodec {
+
+    public static final int MAGIC = 0x455A4442;
+    public static final int FORMAT_VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 8;
+
+    public static final byte RECORD_VERSION = 1;
+    public static final byte TYPE_SET = 1;
+    public static final byte TYPE_RM = 2;
+    public static final byte TYPE_BATCH = 3;
+    public static final byte TYPE_SET_TTL = 4;
+
+    private static final int EXPIRE_AT_SIZE = 8;
+
+    private static final int CRC_SIZE = 4;
+    private static final int MIN_RECORD_SIZE = 2 + 1 + 1 + CRC_SIZE;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<Checksum> CRC = ThreadLocal.withInitial(Crc32c::create);
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    public static byte[] fileHeader() {
+        return ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).array();
+    }
+
+    public static boolean isFileHeader(byte[] header) {
+        return header.length >= FILE_HEADER_SIZE
+                && ByteBuffer.wrap(header).getInt(0) == MAGIC
+                && ByteBuffer.wrap(header).getInt(4) == FORMAT_VERSION;
+    }
+
+    public static byte[] encode(Command command) {
+        if (command instanceof SetCommand) {
+            SetCommand set = (SetCommand) command;
+            return set.getExpireAt() > 0 ? encodeSet(set.getKey(), set.getValue(), set.getExpireAt())
+                    : encodeSet(set.getKey(), set.getValue());
+        }
+        if (command instanceof RmCommand) {
+            return encodeRm(command.getKey());
+        }
+        throw new IllegalArgumentException("unsupported command: " + command);
+    }
+
+    public static byte[] encodeSet(String key, String value) {
+        return encode(TYPE_SET, key.getBytes(StandardCharsets.UTF_8),
+                value == null ? EMPTY : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param expireAt 过期时刻，毫秒时间戳
+     */
+    public static byte[] encodeSet(String key, String value, long expireAt) {
+        byte[] bytes = value == null ? EMPTY : value.getBytes(StandardCharsets.UTF_8);
+        byte[] withExpiry = ByteBuffer.allocate(EXPIRE_AT_SIZE + bytes.length).putLong(expireAt).put(bytes).array();
+        return encode(TYPE_SET_TTL, key.getBytes(StandardCharsets.UTF_8), withExpiry);
+    }
+
+    public static byte[] encodeRm(String key) {
+        return encode(TYPE_RM, key.getBytes(StandardCharsets.UTF_8), EMPTY);
+    }
+
+    /**
+     * 把若干已编码的普通记录打包成一条批量记录
+     */
+    public static byte[] encodeBatch(List<byte[]> records) {
+        int size = 0;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+        ByteBuffer value = ByteBuffer.allocate(size);
+        for (byte[] record : records) {
+            value.putInt(record.length);
+            value.put(record);
+        }
+        return encode(TYPE_BATCH, EMPTY, value.array());
+    }
+
+    /**
+     * 依次回调批量记录中每条内层记录相对 batch.position() 的偏移和长度
+     */
+    public static void forEachInBatch(ByteBuffer batch, BatchVisitor visitor) {
+        int base = batch.position();
+        int p = base + 2;
+        int keyLen = readVarInt(batch, p);
+        p += varIntSize(keyLen);
+        int valueLen = readVarInt(batch, p);
+        p += varIntSize(valueLen) + keyLen;
+        int end = p + valueLen;
+        while (p < end) {
+            int len = batch.getInt(p);
+            visitor.visit(p + 4 - base, len);
+            p += 4 + len;
+        }
+    }
+
+    private static byte[] encode(byte type, byte[] key, byte[] value) {
+        int size = 2 + varIntSize(key.length) + varIntSize(value.length) + key.length + value.length + CRC_SIZE;
+        byte[] out = new byte[size];
+        int p = 0;
+        out[p++] = RECORD_VERSION;
+        out[p++] = type;
+        p = putVarInt(out, p, key.length);
+        p = putVarInt(out, p, value.length);
+        System.arraycopy(key, 0, out, p, key.length);
+        p += key.length;
+        System.arraycopy(value, 0, out, p, value.length);
+        p += value.length;
+        Checksum crc = CRC.get();
+        crc.reset();
+        crc.update(out, 0, p);
+        int c = (int) crc.getValue();
+        out[p] = (byte) (c >>> 24);
+        out[p + 1] = (byte) (c >>> 16);
+        out[p + 2] = (byte) (c >>> 8);
+        out[p + 3] = (byte) c;
+        return out;
+    }
+
+    /**
+     * 校验记录（buffer 的 position 到 limit）的版本、长度和 crc，不移动 position
+     */
+    public static boolean isValid(ByteBuffer record) {
+        int base = record.position();
+        int size = record.remaining();
+        if (size < MIN_RECORD_SIZE || record.get(base) != RECORD_VERSION) {
+            return false;
+        }
+        byte type = record.get(base + 1);
+        if (type != TYPE_SET && type != TYPE_RM && type != TYPE_BATCH && type != TYPE_SET_TTL) {
+            return false;
+        }
+        int p = base + 2;
+        int keyLen = readVarInt(record, p);
+        if (keyLen < 0) {
+            return false;
+        }
+        p += varIntSize(keyLen);
+        int valueLen = readVarInt(record, p);
+        if (valueLen < 0 || type == TYPE_SET_TTL && valueLen < EXPIRE_AT_SIZE) {
+            return false;
+        }
+        p += varIntSize(valueLen);
+        if ((long) p - base + keyLen + valueLen + CRC_SIZE != size) {
+            return false;
+        }
+        Checksum crc = CRC.get();
+        crc.reset();
+        update(crc, record, base, size - CRC_SIZE);
+        return (int) crc.getValue() == record.getInt(base + size - CRC_SIZE);
+    }
+
+    public static byte readType(ByteBuffer record) {
+        return record.get(record.position() + 1);
+    }
+
+    public static String readKey(ByteBuffer record) {
+        int p = record.position() + 2;
+        int keyLen = readVarInt(record, p);
+        p += varIntSize(keyLen);
+        p += varIntSize(readVarInt(record, p));
+        return decodeString(record, p, keyLen);
+    }
+
+    /**
+     * 校验后直接从记录中切出 value，不构造命令对象；rm 记录返回 null
+     */
+    public static String readValue(ByteBuffer record) {
+        if (!isValid(record)) {
+            throw new IllegalStateException("corrupt record at buffer position " + record.position());
+        }
+        if (readType(record) == TYPE_RM) {
+            return null;
+        }
+        int p = record.position() + 2;
+        int keyLen = readVarInt(record, p);
+        p += varIntSize(keyLen);
+        int valueLen = readVarInt(record, p);
+        p += varIntSize(valueLen);
+        if (readType(record) == TYPE_SET_TTL) {
+            return decodeString(record, p + keyLen + EXPIRE_AT_SIZE, valueLen - EXPIRE_AT_SIZE);
+        }
+        return decodeString(record, p + keyLen, valueLen);
+    }
+
+    /**
+     * 同 {@link #readValue(ByteBuffer)}，并确认记录属于 key；索引位置指向了别的记录时抛出异常，不返回错误的值
+     */
+    public static String readValue(ByteBuffer record, String key) {
+        String value = readValue(record);
+        String recordKey = readKey(record);
+        if (!recordKey.equals(key)) {
+            throw new IllegalStateException("record at buffer position " + record.position() + " belongs to key "
+                    + recordKey + ", expected " + key);
+        }
+        return value;
+    }
+
+    /**
+     * @return 记录的过期时刻；不会过期的记录返回 0
+     */
+    public static long readExpireAt(ByteBuffer record) {
+        if (readType(record) != TYPE_SET_TTL) {
+            return 0;
+        }
+        int p = record.position() + 2;
+        int keyLen = readVarInt(record, p);
+        p += varIntSize(keyLen);
+        p += varIntSize(readVarInt(record, p));
+        return record.getLong(p + keyLen);
+    }
+
+    public static boolean isExpired(long expireAt, long now) {
+        return expireAt > 0 && expireAt <= now;
+    }
+
+    public static Command decode(ByteBuffer record) {
+        String value = readValue(record);
+        String key = readKey(record);
+        if (readType(record) == TYPE_RM) {
+            return new RmCommand(key);
+        }
+        return new SetCommand(key, value, readExpireAt(record));
+    }
+
+    private static String decodeString(ByteBuffer buffer, int pos, int len) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + pos, len, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = buffer.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void update(Checksum crc, ByteBuffer buffer, int pos, int len) {
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + pos, len);
+            return;
+        }
+        byte[] copy = COPY_BUFFER.get();
+        while (len > 0) {
+            int n = Math.min(len, copy.length);
+            for (int i = 0; i < n; i++) {
+                copy[i] = buffer.get(pos + i);
+            }
+            crc.update(copy, 0, n);
+            pos += n;
+            len -= n;
+        }
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static int putVarInt(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * @return 解出的值；越界或超过 5 字节时返回 -1
+     */
+    public static int readVarInt(ByteBuffer buffer, int pos) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos >= buffer.limit()) {
+                return -1;
+            }
+            byte b = buffer.get(pos++);
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+    public interface BatchVisitor {
+        void visit(int offset, int len);
+    }
+}
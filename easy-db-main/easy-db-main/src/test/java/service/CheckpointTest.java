@@ -0,0 +1,91 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从检查点恢复：载入检查点后重放 LSN 之后的日志，结果与不用检查点完整重建一致
+ */
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversFromCheckpointAndReplaysTail() throws IOException {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = new StoreConfig();
+        config.setSegmentBytes(64 * 1024);
+        config.setMergeEnabled(false);
+        config.setCheckpointIntervalMs(0);
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        Map<String, String> expected = new HashMap<>();
+        Path saved = folder.newFile().toPath();
+        try (NormalStore store = new NormalStore(dir, config)) {
+            write(store, expected, 0, 20000, 1);
+            store.checkpoint();
+            Files.copy(Checkpoint.path(dir), saved, StandardCopyOption.REPLACE_EXISTING);
+            // LSN 之后覆盖和删除的 key，旧记录要在重放时重新计为可回收
+            write(store, expected, 20000, 30000, 2);
+        }
+        // 换回中途的检查点，相当于写检查点之后崩溃
+        Files.copy(saved, Checkpoint.path(dir), StandardCopyOption.REPLACE_EXISTING);
+        String rebuilt = folder.newFolder().getPath();
+        copyDir(dir, rebuilt);
+        assertTrue(Checkpoint.path(rebuilt).toFile().delete());
+
+        SegmentMerger.MergeStats fromCheckpoint;
+        try (NormalStore store = new NormalStore(dir, config)) {
+            SegmentMergerTest.check(store, expected);
+            store.merge();
+            fromCheckpoint = store.getMergeStats();
+            SegmentMergerTest.check(store, expected);
+        }
+        SegmentMerger.MergeStats fromScan;
+        try (NormalStore store = new NormalStore(rebuilt, config)) {
+            store.merge();
+            fromScan = store.getMergeStats();
+        }
+        assertTrue(fromCheckpoint.getSegmentsMerged() > 0);
+        assertEquals(fromScan.getSegmentsMerged(), fromCheckpoint.getSegmentsMerged());
+        assertEquals(fromScan.getReclaimedBytes(), fromCheckpoint.getReclaimedBytes());
+        try (NormalStore store = new NormalStore(dir, config)) {
+            SegmentMergerTest.check(store, expected);
+        }
+    }
+
+    private static void write(NormalStore store, Map<String, String> expected, int from, int to, long seed) {
+        Random random = new Random(seed);
+        for (int i = from; i < to; i++) {
+            String key = "k" + random.nextInt(500);
+            if (random.nextInt(10) == 0) {
+                store.rm(key);
+                expected.remove(key);
+            } else {
+                String value = "v" + i + "-padding-padding-padding";
+                store.set(key, value);
+                expected.put(key, value);
+            }
+        }
+    }
+
+    private static void copyDir(String from, String to) throws IOException {
+        File[] files = new File(from).listFiles();
+        for (File file : files) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
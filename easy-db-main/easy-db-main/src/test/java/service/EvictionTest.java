@@ -0,0 +1,98 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 内存预算：超出后淘汰 key，常读的 key 留下，被淘汰的 key 重启后也不会回来
+ */
+public class EvictionTest {
+
+    private static final long BUDGET = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lruKeepsHotKeys() throws IOException {
+        keepsHotKeys(EvictionPolicyTypeEnum.LRU);
+    }
+
+    @Test
+    public void lfuKeepsHotKeys() throws IOException {
+        keepsHotKeys(EvictionPolicyTypeEnum.LFU);
+    }
+
+    @Test
+    public void shardsShareTheBudget() throws IOException {
+        String dir = folder.newFolder().getPath();
+        try (ShardedStore store = new ShardedStore(dir, 4, config(EvictionPolicyTypeEnum.LRU))) {
+            for (int i = 0; i < 10000; i++) {
+                store.set("cold" + i, "value-" + i);
+            }
+            MemoryLimiter.EvictionStats stats = store.getEvictionStats();
+            assertTrue(stats.getMaxBytes() <= BUDGET);
+            assertTrue(stats.getEvictions() > 0);
+            assertTrue(stats.getUsedBytes() <= BUDGET + 1024);
+        }
+    }
+
+    private void keepsHotKeys(EvictionPolicyTypeEnum policy) throws IOException {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = config(policy);
+        try (NormalStore store = new NormalStore(dir, config)) {
+            for (int i = 0; i < 50; i++) {
+                store.set("hot" + i, "value-" + i);
+            }
+            // 访问时刻按毫秒记录，每轮之间停一毫秒，热 key 的访问才比之前写入的 key 都新
+            for (int round = 0; round < 250; round++) {
+                for (int i = 0; i < 20; i++) {
+                    store.set("cold" + (round * 20 + i), "value-" + i);
+                }
+                for (int i = 0; i < 50; i++) {
+                    store.get("hot" + i);
+                }
+                sleep(1);
+            }
+            MemoryLimiter.EvictionStats stats = store.getEvictionStats();
+            assertTrue(stats.getEvictions() > 0);
+            // 每次写入前淘汰到预算以内，超出的最多是最后写入的一条
+            assertTrue(stats.getUsedBytes() <= BUDGET + 1024);
+            // 淘汰靠抽样，只是近似的 LRU / LFU
+            int hotKept = 0;
+            for (int i = 0; i < 50; i++) {
+                if (store.get("hot" + i) != null) {
+                    hotKept++;
+                }
+            }
+            assertTrue("hot keys kept: " + hotKept, hotKept >= 45);
+            assertNull(store.get("cold0"));
+        }
+        try (NormalStore store = new NormalStore(dir, config)) {
+            assertNull(store.get("cold0"));
+            assertTrue(store.getEvictionStats().getUsedBytes() <= BUDGET + 1024);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static StoreConfig config(EvictionPolicyTypeEnum policy) {
+        StoreConfig config = new StoreConfig();
+        config.setMaxMemoryBytes(BUDGET);
+        config.setEvictionPolicy(policy);
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        return config;
+    }
+}
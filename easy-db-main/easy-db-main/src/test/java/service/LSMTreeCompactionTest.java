@@ -0,0 +1,189 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分层合并与按大小分档合并：新值覆盖旧值、删除标记只在更深处没有该 key 时丢弃、按清单恢复
+ */
+public class LSMTreeCompactionTest {
+
+    private static final int KEYS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LSMTreeConfig config(CompactionStrategyTypeEnum strategy) {
+        LSMTreeConfig config = new LSMTreeConfig();
+        config.setCompactionStrategy(strategy);
+        config.setMemTableBytes(32 * 1024);
+        config.setLevelBaseBytes(64 * 1024);
+        config.setTargetFileBytes(16 * 1024);
+        config.setLevelSizeMultiplier(4);
+        config.setTieredMinTableBytes(8 * 1024);
+        return config;
+    }
+
+    @Test
+    public void leveledNewerValuesShadowOlder() throws IOException {
+        newerValuesShadowOlder(CompactionStrategyTypeEnum.LEVELED);
+    }
+
+    @Test
+    public void sizeTieredNewerValuesShadowOlder() throws IOException {
+        newerValuesShadowOlder(CompactionStrategyTypeEnum.SIZE_TIERED);
+    }
+
+    @Test
+    public void leveledKeepsTombstonesOverDeeperValues() throws IOException {
+        keepsTombstonesOverDeeperValues(CompactionStrategyTypeEnum.LEVELED);
+    }
+
+    @Test
+    public void sizeTieredKeepsTombstonesOverDeeperValues() throws IOException {
+        keepsTombstonesOverDeeperValues(CompactionStrategyTypeEnum.SIZE_TIERED);
+    }
+
+    @Test
+    public void leveledDropsTombstonesWithNothingDeeper() throws IOException {
+        dropsTombstonesWithNothingDeeper(CompactionStrategyTypeEnum.LEVELED);
+    }
+
+    @Test
+    public void sizeTieredDropsTombstonesWithNothingDeeper() throws IOException {
+        dropsTombstonesWithNothingDeeper(CompactionStrategyTypeEnum.SIZE_TIERED);
+    }
+
+    @Test
+    public void leveledRecoversFromManifest() throws IOException {
+        recoversFromManifest(CompactionStrategyTypeEnum.LEVELED);
+    }
+
+    @Test
+    public void sizeTieredRecoversFromManifest() throws IOException {
+        recoversFromManifest(CompactionStrategyTypeEnum.SIZE_TIERED);
+    }
+
+    private void newerValuesShadowOlder(CompactionStrategyTypeEnum strategy) throws IOException {
+        String dir = folder.newFolder().getPath();
+        try (LSMTree tree = new LSMTree(dir, config(strategy))) {
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < KEYS; i++) {
+                    if (i % 4 >= round) {
+                        tree.put(key(i), value(i, round));
+                    }
+                }
+            }
+            tree.compactNow();
+            assertTrue(tree.getStats().getCompactions() > 0);
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(i, i % 4), tree.get(key(i)));
+            }
+        }
+    }
+
+    private void keepsTombstonesOverDeeperValues(CompactionStrategyTypeEnum strategy) throws IOException {
+        String dir = folder.newFolder().getPath();
+        LSMTreeConfig config = config(strategy);
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                tree.put(key(i), value(i, 0));
+            }
+            tree.compactNow();
+            // 删除标记落到比旧值更新的表里，合并时旧值还在更深处，不能丢弃删除标记
+            for (int i = 0; i < KEYS; i += 2) {
+                tree.put(key(i), null);
+            }
+        }
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            tree.compactNow();
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(i % 2 == 0 ? null : value(i, 0), tree.get(key(i)));
+            }
+        }
+    }
+
+    private void dropsTombstonesWithNothingDeeper(CompactionStrategyTypeEnum strategy) throws IOException {
+        String dir = folder.newFolder().getPath();
+        LSMTreeConfig config = config(strategy);
+        // 每次合并都带上全部的表，删除标记和旧值合在一起，更深处没有该 key
+        config.setL0CompactionTrigger(1);
+        config.setLevelBaseBytes(64L * 1024 * 1024);
+        config.setTieredMinMergeWidth(2);
+        config.setTieredMinTableBytes(64L * 1024 * 1024);
+        config.setMemTableBytes(4L * 1024 * 1024);
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                tree.put(key(i), value(i, 0));
+            }
+        }
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            tree.compactNow();
+            for (int i = 0; i < KEYS; i++) {
+                tree.put(key(i), null);
+            }
+        }
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            tree.compactNow();
+            assertEquals(0, tree.getStats().getSstables());
+            for (int i = 0; i < KEYS; i++) {
+                assertNull(tree.get(key(i)));
+            }
+        }
+    }
+
+    private void recoversFromManifest(CompactionStrategyTypeEnum strategy) throws IOException {
+        String dir = folder.newFolder().getPath();
+        LSMTreeConfig config = config(strategy);
+        // 打开时不在后台合并，比较的各层文件数才不会和合并线程赛跑；compactNow 在调用线程上合并
+        config.setCompactionEnabled(false);
+        int[] levelFiles;
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < KEYS; i++) {
+                    tree.put(key(i), value(i, round));
+                }
+            }
+            tree.compactNow();
+        }
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            levelFiles = tree.getStats().getLevelFiles();
+        }
+        // 没写进清单的表是中断的落盘或合并留下的，打开时删除
+        File stray = new File(dir, "sstable_9999999999" + SSTable.SUFFIX);
+        Files.copy(firstTable(dir).toPath(), stray.toPath());
+        try (LSMTree tree = new LSMTree(dir, config)) {
+            assertFalse(stray.exists());
+            assertArrayEquals(levelFiles, tree.getStats().getLevelFiles());
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(i, 2), tree.get(key(i)));
+            }
+        }
+    }
+
+    private static File firstTable(String dir) {
+        File[] tables = new File(dir).listFiles((d, name) -> name.endsWith(SSTable.SUFFIX));
+        Arrays.sort(tables);
+        return tables[0];
+    }
+
+    private static String key(int i) {
+        return String.format("key%06d", i);
+    }
+
+    private static String value(int i, int round) {
+        return "value-" + i + "-" + round;
+    }
+}
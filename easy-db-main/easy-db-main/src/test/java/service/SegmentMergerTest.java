@@ -0,0 +1,77 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 合并封存段：存活记录搬到新段后索引指向新位置，重启后仍能读到
+ */
+public class SegmentMergerTest {
+
+    private static final int KEYS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergeRelocatesLiveRecords() throws IOException {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = new StoreConfig();
+        config.setSegmentBytes(64 * 1024);
+        config.setMergeEnabled(false);
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        try (NormalStore store = new NormalStore(dir, config)) {
+            for (int i = 0; i < 20000; i++) {
+                String key = "k" + random.nextInt(KEYS);
+                if (random.nextInt(10) == 0) {
+                    store.rm(key);
+                    expected.remove(key);
+                } else {
+                    String value = "v" + i + "-padding-padding-padding";
+                    store.set(key, value);
+                    expected.put(key, value);
+                }
+            }
+            int segmentsBefore = segmentFiles(dir);
+            store.merge();
+            SegmentMerger.MergeStats stats = store.getMergeStats();
+            assertTrue(stats.getSegmentsMerged() > 0);
+            assertTrue(stats.getReclaimedBytes() > 0);
+            assertTrue(segmentFiles(dir) < segmentsBefore);
+            check(store, expected);
+        }
+        try (NormalStore store = new NormalStore(dir, config)) {
+            check(store, expected);
+        }
+        // 没有检查点时按提示文件和数据段重建索引
+        assertTrue(Checkpoint.path(dir).toFile().delete());
+        try (NormalStore store = new NormalStore(dir, config)) {
+            check(store, expected);
+        }
+    }
+
+    static int segmentFiles(String dir) {
+        File[] files = new File(dir).listFiles((d, name) -> name.startsWith(SegmentManager.PREFIX)
+                && name.endsWith(SegmentManager.SUFFIX));
+        return files == null ? 0 : files.length;
+    }
+
+    static void check(Store store, Map<String, String> expected) {
+        for (int i = 0; i < KEYS; i++) {
+            String key = "k" + i;
+            assertEquals(key, expected.get(key), store.get(key));
+        }
+    }
+}
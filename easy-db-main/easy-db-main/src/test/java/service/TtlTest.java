@@ -0,0 +1,109 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 带过期时间的 key：到期后读不到，重启和合并之后也不会重新出现
+ */
+public class TtlTest {
+
+    private static final int KEYS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoreConfig config() {
+        StoreConfig config = new StoreConfig();
+        config.setSegmentBytes(16 * 1024);
+        config.setMergeEnabled(false);
+        config.setTtlTickMs(20);
+        config.setDurability(DurabilityTypeEnum.NO_SYNC);
+        return config;
+    }
+
+    @Test
+    public void expiredKeysStayGoneAcrossRestartAndMerge() throws Exception {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = config();
+        try (NormalStore store = new NormalStore(dir, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                store.set("short" + i, "value" + i, 300);
+                store.set("long" + i, "value" + i, 3_600_000);
+                store.set("plain" + i, "value" + i);
+            }
+            // 覆盖成不过期的值后不再过期
+            store.set("short0", "kept");
+            assertEquals("value1", store.get("short1"));
+            Thread.sleep(600);
+            assertNull(store.get("short1"));
+            assertTrue(store.getExpiredKeys() > 0);
+            // 过期的记录所在的段都已封存，合并时改写成墓碑
+            for (int i = 0; i < 2000; i++) {
+                store.set("fill" + (i % 100), "fill-value-" + i);
+            }
+            store.merge();
+            assertTrue(store.getMergeStats().getSegmentsMerged() > 0);
+            check(store);
+        }
+        try (NormalStore store = new NormalStore(dir, config)) {
+            check(store);
+        }
+        assertTrue(Checkpoint.path(dir).toFile().delete());
+        try (NormalStore store = new NormalStore(dir, config)) {
+            check(store);
+        }
+    }
+
+    @Test
+    public void keyExpiringWhileClosedIsGoneAfterRestart() throws Exception {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = config();
+        try (NormalStore store = new NormalStore(dir, config)) {
+            store.set("session", "token", 200);
+            store.set("other", "value");
+        }
+        Thread.sleep(400);
+        try (NormalStore store = new NormalStore(dir, config)) {
+            assertNull(store.get("session"));
+            assertEquals("value", store.get("other"));
+        }
+        assertTrue(Checkpoint.path(dir).toFile().delete());
+        try (NormalStore store = new NormalStore(dir, config)) {
+            assertNull(store.get("session"));
+        }
+    }
+
+    @Test
+    public void rewrittenKeyExpiresAfterItsLatestTtl() throws Exception {
+        String dir = folder.newFolder().getPath();
+        try (NormalStore store = new NormalStore(dir, config())) {
+            for (int i = 0; i < 10; i++) {
+                store.set("bucket", "v" + i, 300);
+                Thread.sleep(50);
+            }
+            // 第一次写入的过期时刻已过，最后一次的还没到
+            Thread.sleep(100);
+            assertEquals("v9", store.get("bucket"));
+            Thread.sleep(400);
+            assertNull(store.get("bucket"));
+        }
+    }
+
+    private static void check(Store store) {
+        assertEquals("kept", store.get("short0"));
+        for (int i = 0; i < KEYS; i++) {
+            if (i > 0) {
+                assertNull(store.get("short" + i));
+            }
+            assertEquals("value" + i, store.get("long" + i));
+            assertEquals("value" + i, store.get("plain" + i));
+        }
+    }
+}
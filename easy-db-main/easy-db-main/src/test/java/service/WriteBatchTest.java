@@ -0,0 +1,80 @@
+package service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 批量写入：写到一半的批量记录在重启时整条截掉，之前的批量完整保留
+ */
+public class WriteBatchTest {
+
+    private static final int BATCH_KEYS = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tornBatchIsTruncatedOnReload() throws IOException {
+        String dir = folder.newFolder().getPath();
+        StoreConfig config = new StoreConfig();
+        config.setMergeEnabled(false);
+        config.setCheckpointIntervalMs(0);
+        try (NormalStore store = new NormalStore(dir, config)) {
+            store.write(batch("a"));
+        }
+        File active = activeSegment(dir);
+        long committed = active.length();
+        try (NormalStore store = new NormalStore(dir, config)) {
+            store.write(batch("b").rm("a0"));
+        }
+        assertEquals(active, activeSegment(dir));
+        long written = active.length();
+        assertTrue(written > committed);
+        // 模拟第二个批量只写了一半时崩溃，检查点在崩溃前没来得及写
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            file.setLength(committed + (written - committed) / 2);
+        }
+        assertTrue(Checkpoint.path(dir).toFile().delete());
+
+        try (NormalStore store = new NormalStore(dir, config)) {
+            assertEquals(committed, active.length());
+            for (int i = 0; i < BATCH_KEYS; i++) {
+                assertEquals("a-value" + i, store.get("a" + i));
+                assertNull(store.get("b" + i));
+            }
+            store.write(batch("c"));
+        }
+        try (NormalStore store = new NormalStore(dir, config)) {
+            for (int i = 0; i < BATCH_KEYS; i++) {
+                assertEquals("a-value" + i, store.get("a" + i));
+                assertNull(store.get("b" + i));
+                assertEquals("c-value" + i, store.get("c" + i));
+            }
+        }
+    }
+
+    private static WriteBatch batch(String prefix) {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < BATCH_KEYS; i++) {
+            batch.set(prefix + i, prefix + "-value" + i);
+        }
+        return batch;
+    }
+
+    private static File activeSegment(String dir) {
+        File[] files = new File(dir).listFiles((d, name) -> name.startsWith(SegmentManager.PREFIX)
+                && name.endsWith(SegmentManager.SUFFIX));
+        return Arrays.stream(files).max(Comparator.comparing(File::getName)).orElse(null);
+    }
+}